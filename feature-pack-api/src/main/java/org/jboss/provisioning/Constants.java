@@ -42,6 +42,7 @@ public interface Constants {
     String THIS = "this";
 
     String PROVISIONED_STATE_DIR = ".pm";
+    String CONTENT_MANIFEST = "content.manifest";
     String PROVISIONED_STATE_XML = "provisioned.xml";
 
     String PM_UNDEFINED = "PM_UNDEFINED";
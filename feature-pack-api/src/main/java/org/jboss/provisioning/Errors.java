@@ -113,6 +113,10 @@ public interface Errors {
         return "Feature-pack " + gav + " is not found";
     }
 
+    static String hardLinksToLayoutCache() {
+        return "The content of the cached feature-pack layouts must not be hard linked, it may be modified in the installation";
+    }
+
     static String featurePackVersionConflict(ArtifactCoords.Gav gav, ArtifactCoords.Gav gav2) {
         return "Feature-pack " + gav.toGa() + " was specified with version " + gav.getVersion() + " and " + gav2.getVersion();
     }
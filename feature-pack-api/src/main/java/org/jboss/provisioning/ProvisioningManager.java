@@ -29,9 +29,13 @@ import javax.xml.stream.XMLStreamException;
 
 import org.jboss.provisioning.config.FeaturePackConfig;
 import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.layout.FeaturePackLayoutCache;
 import org.jboss.provisioning.runtime.ProvisioningRuntime;
 import org.jboss.provisioning.runtime.ProvisioningRuntimeBuilder;
+import org.jboss.provisioning.runtime.SpecCache;
 import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.state.ReferenceInstallationCache;
+import org.jboss.provisioning.util.ContentMaterializer;
 import org.jboss.provisioning.util.IoUtils;
 import org.jboss.provisioning.util.PathsUtils;
 import org.jboss.provisioning.xml.XmlParsers;
@@ -48,6 +52,11 @@ public class ProvisioningManager {
         private Path installationHome;
         private ArtifactRepositoryManager artifactResolver;
         private MessageWriter messageWriter;
+        private FeaturePackLayoutCache layoutCache;
+        private SpecCache specCache;
+        private boolean incremental;
+        private ContentMaterializer contentMaterializer;
+        private ReferenceInstallationCache referenceCache;
 
         private Builder() {
         }
@@ -72,6 +81,45 @@ public class ProvisioningManager {
             return this;
         }
 
+        public Builder setLayoutCache(FeaturePackLayoutCache layoutCache) {
+            this.layoutCache = layoutCache;
+            return this;
+        }
+
+        public Builder setSpecCache(SpecCache specCache) {
+            this.specCache = specCache;
+            return this;
+        }
+
+        /**
+         * Enables the incremental re-provisioning of an existing installation,
+         * i.e. only the files that changed are written or deleted.
+         *
+         * @param incremental  whether the installation should be updated incrementally
+         * @return  this builder
+         */
+        public Builder setIncremental(boolean incremental) {
+            this.incremental = incremental;
+            return this;
+        }
+
+        public Builder setContentMaterializer(ContentMaterializer contentMaterializer) {
+            this.contentMaterializer = contentMaterializer;
+            return this;
+        }
+
+        /**
+         * Sets the cache of the pristine installations the changes of the installation
+         * are exported against, so that they don't have to be re-provisioned for every export.
+         *
+         * @param referenceCache  reference installation cache or null to disable caching
+         * @return  this builder
+         */
+        public Builder setReferenceCache(ReferenceInstallationCache referenceCache) {
+            this.referenceCache = referenceCache;
+            return this;
+        }
+
         public ProvisioningManager build() {
             return new ProvisioningManager(this);
         }
@@ -85,6 +133,11 @@ public class ProvisioningManager {
     private final Path installationHome;
     private final ArtifactRepositoryManager artifactResolver;
     private final MessageWriter messageWriter;
+    private final FeaturePackLayoutCache layoutCache;
+    private final SpecCache specCache;
+    private final boolean incremental;
+    private final ContentMaterializer contentMaterializer;
+    private final ReferenceInstallationCache referenceCache;
 
     private ProvisioningConfig provisioningConfig;
 
@@ -93,6 +146,11 @@ public class ProvisioningManager {
         this.installationHome = builder.installationHome;
         this.artifactResolver = builder.artifactResolver;
         this.messageWriter = builder.messageWriter == null ? DefaultMessageWriter.getDefaultInstance() : builder.messageWriter;
+        this.layoutCache = builder.layoutCache;
+        this.specCache = builder.specCache;
+        this.incremental = builder.incremental;
+        this.contentMaterializer = builder.contentMaterializer;
+        this.referenceCache = builder.referenceCache;
     }
 
     /**
@@ -240,6 +298,10 @@ public class ProvisioningManager {
                 .setConfig(provisioningConfig)
                 .setEncoding(encoding)
                 .setInstallDir(installationHome)
+                .setLayoutCache(layoutCache)
+                .setSpecCache(specCache)
+                .setIncremental(incremental)
+                .setContentMaterializer(contentMaterializer)
                 .build()) {
             // install the software
             ProvisioningRuntime.install(runtime);
@@ -293,43 +355,57 @@ public class ProvisioningManager {
             Files.copy(userProvisionedXml, xmlTarget, StandardCopyOption.REPLACE_EXISTING);
         }
         Path tempInstallationDir = IoUtils.createRandomTmpDir();
+        ReferenceInstallationCache.Mount referenceMount = null;
         try {
-            ProvisioningManager reference = new ProvisioningManager(ProvisioningManager.builder()
-                    .setArtifactResolver(this.getArtifactResolver())
-                    .setEncoding(this.getEncoding())
-                    .setInstallationHome(tempInstallationDir)
-                    .setMessageWriter(new MessageWriter() {
-                        @Override
-                        public void verbose(Throwable cause, CharSequence message) {
-                            return;
-                        }
-
-                        @Override
-                        public void print(Throwable cause, CharSequence message) {
-                            messageWriter.print(cause, message);
-                        }
-
-                        @Override
-                        public void error(Throwable cause, CharSequence message) {
-                            messageWriter.error(cause, message);
-                        }
-
-                        @Override
-                        public boolean isVerboseEnabled() {
-                            return false;
-                        }
-
-                        @Override
-                        public void close() throws Exception {
-                            return;
-                        }
-                    }));
-            reference.provision(configuration);
+            if(referenceCache != null && configuration != null) {
+                referenceMount = referenceCache.mount(configuration);
+            }
+            if(referenceMount == null) {
+                ProvisioningManager reference = new ProvisioningManager(ProvisioningManager.builder()
+                        .setArtifactResolver(this.getArtifactResolver())
+                        .setEncoding(this.getEncoding())
+                        .setLayoutCache(layoutCache)
+                        .setSpecCache(specCache)
+                        .setInstallationHome(tempInstallationDir)
+                        .setMessageWriter(new MessageWriter() {
+                            @Override
+                            public void verbose(Throwable cause, CharSequence message) {
+                                return;
+                            }
+
+                            @Override
+                            public void print(Throwable cause, CharSequence message) {
+                                messageWriter.print(cause, message);
+                            }
+
+                            @Override
+                            public void error(Throwable cause, CharSequence message) {
+                                messageWriter.error(cause, message);
+                            }
+
+                            @Override
+                            public boolean isVerboseEnabled() {
+                                return false;
+                            }
+
+                            @Override
+                            public void close() throws Exception {
+                                return;
+                            }
+                        }));
+                reference.provision(configuration);
+                if(referenceCache != null && configuration != null) {
+                    referenceMount = referenceCache.add(configuration, tempInstallationDir);
+                }
+            }
+            final Path referenceDir = referenceMount == null ? tempInstallationDir : referenceMount.getInstallationDir();
             ProvisioningRuntimeBuilder builder = ProvisioningRuntimeBuilder.newInstance(messageWriter)
                     .setArtifactResolver(this.getArtifactResolver())
                     .setConfig(configuration)
                     .setEncoding(this.getEncoding())
-                    .setInstallDir(tempInstallationDir)
+                    .setLayoutCache(layoutCache)
+                    .setSpecCache(specCache)
+                    .setInstallDir(referenceDir)
                     .addAllParameters(parameters)
                     .setOperation(toFeaturePack ? "diff-to-feature-pack" : "diff");
             try (ProvisioningRuntime runtime = builder.build()) {
@@ -343,6 +419,9 @@ public class ProvisioningManager {
                 messageWriter.error(e, e.getMessage());
             }
         } finally {
+            if(referenceMount != null) {
+                referenceMount.close();
+            }
             IoUtils.recursiveDelete(tempInstallationDir);
         }
     }
@@ -351,10 +430,17 @@ public class ProvisioningManager {
         ProvisioningConfig configuration = this.getProvisioningConfig();
         Path tempInstallationDir = IoUtils.createRandomTmpDir();
         Path stagedDir = IoUtils.createRandomTmpDir();
+        // if the installation has a content manifest, the changes are computed against it
+        // and only the package content is needed as the reference of the original content
+        final boolean contentManifest = Files.exists(PathsUtils.getContentManifest(installationHome));
         try {
-            ProvisioningManager reference = new ProvisioningManager(ProvisioningManager.builder()
+            ProvisioningManager reference;
+            if(!contentManifest) {
+                reference = new ProvisioningManager(ProvisioningManager.builder()
                     .setArtifactResolver(this.getArtifactResolver())
                     .setEncoding(this.getEncoding())
+                    .setLayoutCache(layoutCache)
+                    .setSpecCache(specCache)
                     .setInstallationHome(tempInstallationDir)
                     .setMessageWriter(new MessageWriter() {
                         @Override
@@ -382,11 +468,14 @@ public class ProvisioningManager {
                             return;
                         }
                     }));
-            reference.provision(configuration);
+                reference.provision(configuration);
+            }
             Files.createDirectories(stagedDir);
             reference = new ProvisioningManager(ProvisioningManager.builder()
                     .setArtifactResolver(this.getArtifactResolver())
                     .setEncoding(this.getEncoding())
+                    .setLayoutCache(layoutCache)
+                    .setSpecCache(specCache)
                     .setInstallationHome(stagedDir)
                     .setMessageWriter(new MessageWriter() {
                         @Override
@@ -419,11 +508,15 @@ public class ProvisioningManager {
                     .setArtifactResolver(this.getArtifactResolver())
                     .setConfig(configuration)
                     .setEncoding(this.getEncoding())
+                    .setLayoutCache(layoutCache)
+                    .setSpecCache(specCache)
                     .setInstallDir(tempInstallationDir)
                     .addAllParameters(parameters)
                     .setOperation("upgrade");
             try (ProvisioningRuntime runtime = diffBuilder.build()) {
-                // install the software
+                if(contentManifest) {
+                    ProvisioningRuntime.installPackageContent(runtime);
+                }
                 Files.createDirectories(tempInstallationDir.resolve("model_diff"));
                 ProvisioningRuntime.diff(runtime, tempInstallationDir.resolve("model_diff"), installationHome);
                 runtime.setInstallDir(stagedDir);
@@ -433,7 +526,9 @@ public class ProvisioningManager {
             }
         } finally {
             IoUtils.recursiveDelete(tempInstallationDir);
+            IoUtils.recursiveDelete(stagedDir);
         }
+        this.provisioningConfig = null;
     }
 
     String getEncoding() {
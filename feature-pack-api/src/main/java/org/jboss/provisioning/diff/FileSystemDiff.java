@@ -18,36 +18,68 @@ package org.jboss.provisioning.diff;
 
 import static org.jboss.provisioning.util.IoUtils.listContents;
 
+import difflib.Chunk;
+import difflib.Delta;
 import difflib.DiffUtils;
 import difflib.Patch;
+import java.io.BufferedReader;
+import java.io.CharArrayReader;
+import java.io.EOFException;
 import java.io.IOException;
-import java.nio.charset.MalformedInputException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.ProviderException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import org.jboss.provisioning.MessageWriter;
+import org.jboss.provisioning.state.ContentManifest;
+import org.jboss.provisioning.util.HashUtils;
 import org.jboss.provisioning.util.PathFilter;
+import org.jboss.provisioning.util.PathsUtils;
 
 /**
  *
  * @author Emmanuel Hugonnet (c) 2017 Red Hat, inc.
  */
 public class FileSystemDiff {
+
+    private static final int BLOCK_SIZE = 8192;
+
     private final Path stagedInstallation;
     private final Path customizedInstallation;
+    private final ForkJoinPool pool;
     protected final MessageWriter messageWriter;
 
     public FileSystemDiff(MessageWriter messageWriter, Path stagedInstallation, Path customizedInstallation) {
+        this(messageWriter, stagedInstallation, customizedInstallation, null);
+    }
+
+    /**
+     * @param pool  worker pool hashing the files and computing the diffs of the modified files
+     * or null to run them in a pool created for each diff
+     */
+    public FileSystemDiff(MessageWriter messageWriter, Path stagedInstallation, Path customizedInstallation, ForkJoinPool pool) {
         this.stagedInstallation = stagedInstallation;
         this.customizedInstallation = customizedInstallation;
         this.messageWriter = messageWriter;
+        this.pool = pool;
     }
 
     public FileSystemDiffResult diff() throws ProviderException {
@@ -55,10 +87,28 @@ public class FileSystemDiff {
     }
 
     public FileSystemDiffResult diff(final PathFilter filter) throws ProviderException {
+        final ForkJoinPool pool = this.pool == null ? FileTasks.newPool() : this.pool;
         try {
-            final Map<Path, String> stagged = listContents(stagedInstallation, filter);
-            final Map<Path, String> custom = listContents(customizedInstallation, filter);
-            Changes changes = listChanges(stagged, custom);
+            return diff(filter, pool);
+        } finally {
+            if(pool != this.pool) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private FileSystemDiffResult diff(final PathFilter filter, final ForkJoinPool pool) throws ProviderException {
+        try {
+            final ContentManifest manifest = ContentManifest.read(PathsUtils.getContentManifest(customizedInstallation));
+            if(!manifest.isEmpty()) {
+                return diff(filter, manifest, pool);
+            }
+            // the hashes of the files unmodified since they were installed are taken from the content manifests
+            final PathFilter contentFilter = ContentManifest.getFilter(filter);
+            final Map<Path, String> stagged = listContents(stagedInstallation, contentFilter,
+                    ContentManifest.read(PathsUtils.getContentManifest(stagedInstallation)), pool);
+            final Map<Path, String> custom = listContents(customizedInstallation, contentFilter, manifest, pool);
+            Changes changes = listChanges(stagged, custom, pool);
             return new FileSystemDiffResult(
                     listDeletedFiles(stagged, custom),
                     listAddedFiles(stagged, custom),
@@ -69,8 +119,58 @@ public class FileSystemDiff {
         }
     }
 
+    /**
+     * Computes the changes of the customized installation against its content manifest,
+     * which records the content as it was installed. The staged installation is used only
+     * as the source of the original content of the modified files, so it does not have to be
+     * a complete installation. The modified files whose original content is not available
+     * are reported as modified binary files.
+     */
+    private FileSystemDiffResult diff(final PathFilter filter, final ContentManifest manifest, final ForkJoinPool pool) throws IOException {
+        final Map<Path, String> custom = listContents(customizedInstallation, ContentManifest.getFilter(filter), manifest, pool);
+        final Set<Path> addedFiles = new TreeSet<>();
+        final Map<Path, String> modifiedFiles = new HashMap<>();
+        for (Entry<Path, String> entry : custom.entrySet()) {
+            final Path path = entry.getKey();
+            final ContentManifest.Entry installed = manifest.getEntry(ContentManifest.toEntryPath(path));
+            if (installed == null) {
+                // empty directories aren't recorded in the manifest
+                if (!Files.isDirectory(resolveOriginPath(path)) || !Files.isDirectory(resolveStagePath(path))) {
+                    addedFiles.add(path);
+                }
+            } else if (!installed.getHash().equals(entry.getValue())) {
+                modifiedFiles.put(path, installed.getHash());
+            }
+        }
+        final Changes changes = new Changes(FileTasks.execute(modifiedFiles.keySet(), path -> {
+            final Path original = resolveStagePath(path);
+            if (Files.isRegularFile(original) && modifiedFiles.get(path).equals(HashUtils.hashFile(original))) {
+                return extractUnifiedDiff(original, resolveOriginPath(path));
+            }
+            return null;
+        }, pool));
+        final Set<Path> deletedFiles = new TreeSet<>();
+        for (ContentManifest.Entry installed : manifest.getEntries()) {
+            final Path path = customizedInstallation.getFileSystem().getPath(installed.getPath());
+            if (!custom.containsKey(path) && isAccepted(filter, path)) {
+                deletedFiles.add(path);
+            }
+        }
+        return new FileSystemDiffResult(deletedFiles, addedFiles, changes.modifiedBinaryFiles, changes.unifiedDiff);
+    }
+
+    private static boolean isAccepted(PathFilter filter, Path path) {
+        // the filter is applied to the path and all its parent directories, as when the tree is walked
+        for (int i = 1; i <= path.getNameCount(); ++i) {
+            if (!filter.accept(path.subpath(0, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private Set<Path> listDeletedFiles(final Map<Path, String> stagged, final Map<Path, String> custom) {
-        Set<Path> deletedFiles = new HashSet<>();
+        Set<Path> deletedFiles = new TreeSet<>();
         for (Path path : stagged.keySet()) {
             if (!custom.containsKey(path)) {
                 Path staggedPath = resolveStagePath(path);
@@ -85,7 +185,7 @@ public class FileSystemDiff {
     }
 
     private Set<Path> listAddedFiles(final Map<Path, String> stagged, final Map<Path, String> custom) {
-        Set<Path> addedFiles = new HashSet<>();
+        Set<Path> addedFiles = new TreeSet<>();
         for (Path path : custom.keySet()) {
             if (!stagged.containsKey(path)) {
                 addedFiles.add(path);
@@ -102,36 +202,183 @@ public class FileSystemDiff {
         return customizedInstallation.resolve(path);
     }
 
-        private Changes listChanges(final Map<Path, String> stagged, final Map<Path, String> custom) throws IOException {
-            Changes changes = new Changes();
+        private Changes listChanges(final Map<Path, String> stagged, final Map<Path, String> custom, final ForkJoinPool pool) throws IOException {
+            Set<Path> modifiedFiles = new HashSet<>();
             for (Entry<Path, String> entry : stagged.entrySet()) {
                 Path path = entry.getKey();
                 if (custom.containsKey(path) && !custom.get(path).equals(entry.getValue())) {
-                    try {
-                        changes.unifiedDiff.put(path, extractUnifiedDiff(resolveStagePath(path), resolveOriginPath(path)));
-                    } catch(MalformedInputException ex) {
-                        changes.modifiedBinaryFiles.add(path);
-                    }
+                    modifiedFiles.add(path);
                 }
             }
-            return changes;
+            return new Changes(FileTasks.execute(modifiedFiles,
+                    path -> extractUnifiedDiff(resolveStagePath(path), resolveOriginPath(path)), pool));
         }
 
-        private List<String> extractUnifiedDiff(Path revised, Path original) throws IOException {
-            final List<String> revisedLines = Files.readAllLines(revised, StandardCharsets.UTF_8);
-            final List<String> originalLines = Files.readAllLines(original, StandardCharsets.UTF_8);
-            Patch<String> patch = DiffUtils.diff(revisedLines, originalLines);
+    /**
+     * Computes the unified diff of the files without context lines.
+     *
+     * The first block of each file is checked for binary content. Then the common
+     * prefix and suffix of the files are skipped comparing the content block by block
+     * and only the differing window of lines is decoded and diffed. The positions
+     * of the resulting deltas are shifted by the number of the lines in the common prefix.
+     *
+     * @return  unified diff or null if either of the files is binary
+     */
+    static List<String> extractUnifiedDiff(Path revised, Path original) throws IOException {
+        try (FileChannel revisedChannel = FileChannel.open(revised, StandardOpenOption.READ);
+                FileChannel originalChannel = FileChannel.open(original, StandardOpenOption.READ)) {
+            final ByteBuffer revisedBuf = ByteBuffer.allocate(BLOCK_SIZE);
+            final ByteBuffer originalBuf = ByteBuffer.allocate(BLOCK_SIZE);
+            if (isBinary(revisedChannel, revisedBuf) || isBinary(originalChannel, originalBuf)) {
+                return null;
+            }
+            final long revisedSize = revisedChannel.size();
+            final long originalSize = originalChannel.size();
+            final long minSize = Math.min(revisedSize, originalSize);
+
+            // the common prefix ending with a line end
+            long prefixSize = 0;
+            int prefixLines = 0;
+            long position = 0;
+            prefix: while (position < minSize) {
+                final int length = (int) Math.min(BLOCK_SIZE, minSize - position);
+                read(revisedChannel, revisedBuf, position, length);
+                read(originalChannel, originalBuf, position, length);
+                for (int i = 0; i < length; ++i) {
+                    final byte b = revisedBuf.get(i);
+                    if (b != originalBuf.get(i)) {
+                        break prefix;
+                    }
+                    if (b == '\n') {
+                        ++prefixLines;
+                        prefixSize = position + i + 1;
+                    }
+                }
+                position += length;
+            }
+
+            // the common suffix starting with a line, not overlapping the prefix
+            final long maxSuffixSize = minSize - prefixSize;
+            long suffixSize = 0;
+            long scanned = 0;
+            suffix: while (scanned < maxSuffixSize) {
+                final int length = (int) Math.min(BLOCK_SIZE, maxSuffixSize - scanned);
+                read(revisedChannel, revisedBuf, revisedSize - scanned - length, length);
+                read(originalChannel, originalBuf, originalSize - scanned - length, length);
+                for (int i = length - 1; i >= 0; --i) {
+                    final byte b = revisedBuf.get(i);
+                    if (b != originalBuf.get(i)) {
+                        break suffix;
+                    }
+                    if (b == '\n') {
+                        suffixSize = scanned + length - 1 - i;
+                    }
+                }
+                scanned += length;
+            }
+            if (scanned == maxSuffixSize && maxSuffixSize > suffixSize) {
+                // the prefix ends with a line end, so the whole remainder of the shorter file is a sequence of lines,
+                // in the longer file it is a sequence of lines only if it follows a line end
+                if (revisedSize == originalSize) {
+                    suffixSize = maxSuffixSize;
+                } else {
+                    final FileChannel longer = revisedSize > originalSize ? revisedChannel : originalChannel;
+                    read(longer, revisedBuf, longer.size() - maxSuffixSize - 1, 1);
+                    if (revisedBuf.get(0) == '\n') {
+                        suffixSize = maxSuffixSize;
+                    }
+                }
+            }
+
+            final List<String> revisedLines = readLines(revisedChannel, prefixSize, revisedSize - suffixSize);
+            final List<String> originalLines = readLines(originalChannel, prefixSize, originalSize - suffixSize);
+            if (revisedLines == null || originalLines == null) {
+                return null;
+            }
+            final Patch<String> patch = DiffUtils.diff(revisedLines, originalLines);
+            if (prefixLines > 0) {
+                for (Delta<String> delta : patch.getDeltas()) {
+                    delta.setOriginal(new Chunk<>(delta.getOriginal().getPosition() + prefixLines, delta.getOriginal().getLines()));
+                    delta.setRevised(new Chunk<>(delta.getRevised().getPosition() + prefixLines, delta.getRevised().getLines()));
+                }
+            }
+            // there are no context lines, so the lines outside of the window are not needed
             return DiffUtils.generateUnifiedDiff(revised.toString(), original.toString(), revisedLines, patch, 0);
         }
+    }
+
+    /**
+     * Checks whether the first block of the file contains a zero byte or is not valid UTF-8.
+     */
+    private static boolean isBinary(FileChannel channel, ByteBuffer buf) throws IOException {
+        final int length = (int) Math.min(BLOCK_SIZE, channel.size());
+        read(channel, buf, 0, length);
+        for (int i = 0; i < length; ++i) {
+            if (buf.get(i) == 0) {
+                return true;
+            }
+        }
+        // the block may end in the middle of a character, so it is not the end of the input
+        final CoderResult result = StandardCharsets.UTF_8.newDecoder().decode(buf, CharBuffer.allocate(length), false);
+        return result.isError();
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buf, long position, int length) throws IOException {
+        buf.clear().limit(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buf.flip();
+    }
+
+    /**
+     * Reads the lines between the positions or returns null if the content is not valid UTF-8.
+     */
+    private static List<String> readLines(FileChannel channel, long start, long end) throws IOException {
+        if (start >= end) {
+            return Collections.emptyList();
+        }
+        if (end - start > Integer.MAX_VALUE) {
+            return null;
+        }
+        final ByteBuffer buf = ByteBuffer.allocate((int) (end - start));
+        read(channel, buf, start, buf.capacity());
+        final CharBuffer chars = CharBuffer.allocate(buf.capacity());
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        if (decoder.decode(buf, chars, true).isError() || decoder.flush(chars).isError()) {
+            return null;
+        }
+        chars.flip();
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new CharArrayReader(chars.array(), 0, chars.limit()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
 
     private static class Changes {
 
         private final Map<Path, List<String>> unifiedDiff;
         private final Set<Path> modifiedBinaryFiles;
 
-        private Changes() {
-            this.unifiedDiff = new HashMap<>();
-            this.modifiedBinaryFiles = new HashSet<>();
+        /**
+         * @param diffs  unified diffs of the modified files in the order of the paths, null for binary files
+         */
+        private Changes(Map<Path, List<String>> diffs) {
+            this.unifiedDiff = new LinkedHashMap<>();
+            this.modifiedBinaryFiles = new LinkedHashSet<>();
+            for (Entry<Path, List<String>> entry : diffs.entrySet()) {
+                if (entry.getValue() == null) {
+                    modifiedBinaryFiles.add(entry.getKey());
+                } else {
+                    unifiedDiff.put(entry.getKey(), entry.getValue());
+                }
+            }
         }
     }
 }
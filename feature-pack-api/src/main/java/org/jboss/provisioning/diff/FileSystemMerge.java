@@ -27,7 +27,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import org.jboss.provisioning.MessageWriter;
 
@@ -38,12 +38,22 @@ import org.jboss.provisioning.MessageWriter;
 public abstract class FileSystemMerge {
     private final Path stagedInstallation;
     private final Path customizedInstallation;
+    private final ForkJoinPool pool;
     protected final MessageWriter messageWriter;
 
     protected FileSystemMerge(MessageWriter messageWriter, Path stagedInstallation, Path customizedInstallation) {
+        this(messageWriter, stagedInstallation, customizedInstallation, null);
+    }
+
+    /**
+     * @param pool  worker pool patching the modified files
+     * or null to patch them in a pool created for each update
+     */
+    protected FileSystemMerge(MessageWriter messageWriter, Path stagedInstallation, Path customizedInstallation, ForkJoinPool pool) {
         this.stagedInstallation = stagedInstallation;
         this.customizedInstallation = customizedInstallation;
         this.messageWriter = messageWriter;
+        this.pool = pool;
     }
 
     protected Path resolveStagePath(Path path) {
@@ -58,9 +68,23 @@ public abstract class FileSystemMerge {
 
     public abstract void patchFailure(Path path);
 
-    protected void patchFiles(Map<Path, List<String>> changes) {
-        for(Entry<Path, List<String>> change : changes.entrySet()) {
-            patchFile(change.getKey(), change.getValue());
+    /**
+     * Patches the files in parallel. The files which fail to be patched are handled by
+     * {@link #patchFailure(Path)}, which may be called concurrently for different paths.
+     * If it fails for some of the files, the failures are reported after all the files
+     * have been processed.
+     */
+    protected void patchFiles(Map<Path, List<String>> changes) throws IOException {
+        final ForkJoinPool pool = this.pool == null ? FileTasks.newPool() : this.pool;
+        try {
+            FileTasks.execute(changes.keySet(), path -> {
+                patchFile(path, changes.get(path));
+                return null;
+            }, pool);
+        } finally {
+            if(pool != this.pool) {
+                pool.shutdownNow();
+            }
         }
     }
 
@@ -83,13 +107,17 @@ public abstract class FileSystemMerge {
     public static class Factory {
 
         public static FileSystemMerge getInstance(Strategy strategy, MessageWriter messageWriter, Path stagedInstallation, Path customizedInstallation) {
+            return getInstance(strategy, messageWriter, stagedInstallation, customizedInstallation, null);
+        }
+
+        public static FileSystemMerge getInstance(Strategy strategy, MessageWriter messageWriter, Path stagedInstallation, Path customizedInstallation, ForkJoinPool pool) {
             switch (strategy) {
                 case THEIRS:
-                    return new TheirsStrategy(messageWriter, stagedInstallation, customizedInstallation);
+                    return new TheirsStrategy(messageWriter, stagedInstallation, customizedInstallation, pool);
                 case INTERACTIVE:
                 case OURS:
                 default:
-                    return new OursStrategy(messageWriter, stagedInstallation, customizedInstallation);
+                    return new OursStrategy(messageWriter, stagedInstallation, customizedInstallation, pool);
             }
         }
     }
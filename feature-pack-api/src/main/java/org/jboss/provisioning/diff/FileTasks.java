@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.diff;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent per-file tasks on a worker pool.
+ *
+ * The results are collected in the order of the paths, so they don't depend
+ * on the scheduling of the tasks. A failure of a task does not cancel the other tasks.
+ * Once all the tasks are complete the failure of the first path is thrown with
+ * the failures of the following paths added to it as suppressed exceptions.
+ *
+ * @author agent
+ */
+class FileTasks {
+
+    interface FileTask<R> {
+        R execute(Path path) throws IOException;
+    }
+
+    /**
+     * Creates a worker pool for the file tasks of a single operation. The tasks block
+     * on the file I/O, so they are not run in the common pool.
+     */
+    static ForkJoinPool newPool() {
+        return new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    static <R> Map<Path, R> execute(Collection<Path> paths, FileTask<R> task, ForkJoinPool pool) throws IOException {
+        final Map<Path, R> results = new TreeMap<>();
+        if(paths.isEmpty()) {
+            return results;
+        }
+        final List<Path> sorted = new ArrayList<>(new TreeSet<>(paths));
+        final List<Future<R>> futures = new ArrayList<>(sorted.size());
+        for(Path path : sorted) {
+            futures.add(pool.submit(() -> task.execute(path)));
+        }
+        Throwable failure = null;
+        for(int i = 0; i < sorted.size(); ++i) {
+            try {
+                results.put(sorted.get(i), futures.get(i).get());
+            } catch (ExecutionException e) {
+                if(failure == null) {
+                    failure = e.getCause();
+                } else {
+                    failure.addSuppressed(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for(Future<R> future : futures) {
+                    future.cancel(true);
+                }
+                throw new InterruptedIOException("Interrupted while processing " + sorted.get(i));
+            }
+        }
+        if(failure == null) {
+            return results;
+        }
+        if(failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if(failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if(failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new IOException(failure);
+    }
+}
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
 import org.jboss.provisioning.MessageWriter;
 import org.jboss.provisioning.util.IoUtils;
 
@@ -33,6 +34,10 @@ public class OursStrategy extends FileSystemMerge {
         super(messageWriter, stagedInstallation, customizedInstallation);
     }
 
+    public OursStrategy(MessageWriter messageWriter, Path stagedInstallation, Path customizedInstallation, ForkJoinPool pool) {
+        super(messageWriter, stagedInstallation, customizedInstallation, pool);
+    }
+
     @Override
     public void executeUpdate(FileSystemDiffResult result) throws IOException {
         for (Path deletedPath : result.getDeletedFiles()) {
@@ -54,6 +59,11 @@ public class OursStrategy extends FileSystemMerge {
                 throw new RuntimeException("Couldn't copy file " + src, ioex);
             }
         }
+        // the modified files which can't be patched replace the upgraded ones
+        for (Path modifiedPath : result.getModifiedBinaryFiles()) {
+            patchFailure(modifiedPath);
+            messageWriter.verbose("File %s has been copied to %s", resolveOriginPath(modifiedPath), resolveStagePath(modifiedPath));
+        }
         patchFiles(result.getUnifiedDiffs());
     }
 
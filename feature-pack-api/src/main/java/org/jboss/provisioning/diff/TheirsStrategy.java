@@ -19,6 +19,7 @@ package org.jboss.provisioning.diff;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
 import org.jboss.provisioning.MessageWriter;
 
 /**
@@ -31,6 +32,10 @@ public class TheirsStrategy extends FileSystemMerge {
         super(messageWriter, stagedInstallation, customizedInstallation);
     }
 
+    public TheirsStrategy(MessageWriter messageWriter, Path stagedInstallation, Path customizedInstallation, ForkJoinPool pool) {
+        super(messageWriter, stagedInstallation, customizedInstallation, pool);
+    }
+
     @Override
     public void executeUpdate(FileSystemDiffResult result) throws IOException {
         for (Path addedPath : result.getAddedFiles()) {
@@ -50,6 +55,20 @@ public class TheirsStrategy extends FileSystemMerge {
                 }
             }
         }
+        // the modified files which can't be patched are kept only if the upgraded installation doesn't provide them
+        for (Path modifiedPath : result.getModifiedBinaryFiles()) {
+            Path target = resolveStagePath(modifiedPath);
+            Path src = resolveOriginPath(modifiedPath);
+            if (!Files.exists(target)) {
+                try {
+                    Files.createDirectories(target.getParent());
+                    Files.copy(src, target);
+                    messageWriter.verbose("File %s has been copied to %s", src, target);
+                } catch (IOException ioex) {
+                    throw new RuntimeException("Couldn't copy file " + src, ioex);
+                }
+            }
+        }
         patchFiles(result.getUnifiedDiffs());
     }
 
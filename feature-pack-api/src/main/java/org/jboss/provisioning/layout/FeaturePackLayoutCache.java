@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.layout;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.Errors;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.util.HashUtils;
+import org.jboss.provisioning.util.IoUtils;
+import org.jboss.provisioning.util.SharedDirCache;
+import org.jboss.provisioning.util.ZipUtils;
+
+/**
+ * Persistent on-disk cache of unpacked feature-pack layouts which can be shared
+ * across provisioning runs and JVMs.
+ *
+ * Entries are keyed by the feature-pack GAV and the checksum of the artifact.
+ * A mounted entry is used by the provisioning runtime directly, i.e. it is not copied,
+ * and must not be modified. The total size of the cache is kept under the configured
+ * limit by evicting the least recently used entries that are not mounted at the moment.
+ * The modifications of the cache are guarded by a lock file in the cache directory,
+ * see {@link SharedDirCache}.
+ *
+ * @author agent
+ */
+public class FeaturePackLayoutCache {
+
+    /**
+     * Mounted cache entry. The entry is protected from eviction until it is closed.
+     */
+    public static class Mount implements Closeable {
+
+        private final SharedDirCache.Mount mount;
+        private final Path layoutDir;
+
+        private Mount(SharedDirCache.Mount mount) {
+            this.mount = mount;
+            this.layoutDir = mount.getEntryDir().resolve(LAYOUT);
+        }
+
+        /**
+         * Unpacked feature-pack layout.
+         *
+         * @return  unpacked feature-pack layout directory
+         */
+        public Path getLayoutDir() {
+            return layoutDir;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mount.close();
+        }
+    }
+
+    private static final String LAYOUT = "layout";
+
+    public static FeaturePackLayoutCache newInstance(Path dir, long maxSize) {
+        return new FeaturePackLayoutCache(dir, maxSize);
+    }
+
+    private final SharedDirCache cache;
+    private final long maxSize;
+
+    private FeaturePackLayoutCache(Path dir, long maxSize) {
+        if(maxSize <= 0) {
+            throw new IllegalArgumentException("The maximum size of the cache must be positive: " + maxSize);
+        }
+        this.cache = new SharedDirCache(dir, maxSize);
+        this.maxSize = maxSize;
+    }
+
+    public Path getDir() {
+        return cache.getDir();
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Mounts the unpacked layout of the feature-pack artifact unpacking and adding it
+     * to the cache, if it is not yet there.
+     *
+     * @param gav  feature-pack GAV
+     * @param artifact  feature-pack artifact
+     * @return  mounted cache entry which has to be closed when it is not used any more
+     * @throws ProvisioningException  in case of a failure
+     */
+    public Mount mount(ArtifactCoords.Gav gav, Path artifact) throws ProvisioningException {
+        final Path entryDir;
+        try {
+            entryDir = cache.getDir().resolve(gav.getGroupId() + '_' + gav.getArtifactId() + '_' + gav.getVersion() + '_' + HashUtils.hashFile(artifact));
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.hashCalculation(artifact), e);
+        }
+        final Path tmpDir;
+        try {
+            tmpDir = cache.newTmpPath();
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.mkdirs(cache.getDir()), e);
+        }
+
+        try {
+            final SharedDirCache.Mount mount = cache.mount(entryDir);
+            if(mount != null) {
+                return new Mount(mount);
+            }
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.openFile(entryDir), e);
+        }
+
+        // unpack outside of the lock and then move the result into place
+        final long size;
+        try {
+            ZipUtils.unzip(artifact, tmpDir.resolve(LAYOUT), ForkJoinPool.commonPool());
+            size = sizeOf(tmpDir);
+        } catch (IOException e) {
+            IoUtils.recursiveDelete(tmpDir);
+            throw new ProvisioningException("Failed to unpack " + artifact + " to " + tmpDir, e);
+        }
+
+        try {
+            return new Mount(cache.add(tmpDir, entryDir, size));
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.moveFile(tmpDir, entryDir), e);
+        }
+    }
+
+    private static long sizeOf(Path dir) throws IOException {
+        final long[] size = new long[1];
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                size[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.layout;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.Errors;
+import org.jboss.provisioning.ProvisioningException;
+
+/**
+ * Index of the feature spec, feature group spec and package spec descriptors of a feature-pack
+ * stored in a single file in the root of the feature-pack layout.
+ *
+ * The index is generated when the feature-pack is built. It consists of a binary table of contents
+ * followed by the descriptors themselves. The runtime maps the index into memory and parses
+ * the descriptors from it instead of locating and opening a file per spec.
+ * Feature-packs built without the index are read from the individual XML files.
+ *
+ * Format: magic, version, number of entries, the entries each as (kind, name, offset, length)
+ * and then the content. The offsets are relative to the beginning of the content.
+ *
+ * @author agent
+ */
+public class FeaturePackSpecIndex {
+
+    public static final String FILE_NAME = "spec-index.bin";
+
+    private static final int MAGIC = 0x50534958;
+    private static final short VERSION = 1;
+
+    private static final byte FEATURE_SPEC = 1;
+    private static final byte FEATURE_GROUP = 2;
+    private static final byte PACKAGE = 3;
+
+    private static class Entry {
+        final byte kind;
+        final String name;
+        final byte[] content;
+
+        Entry(byte kind, String name, byte[] content) {
+            this.kind = kind;
+            this.name = name;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Generates the index of the specs found in the feature-pack layout directory.
+     *
+     * @param fpDir  feature-pack layout directory
+     * @throws IOException  in case of a failure
+     */
+    public static void write(Path fpDir) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        Path dir = fpDir.resolve(Constants.FEATURES);
+        if(Files.exists(dir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path specDir : stream) {
+                    final Path specXml = specDir.resolve(Constants.SPEC_XML);
+                    if (Files.exists(specXml)) {
+                        entries.add(new Entry(FEATURE_SPEC, specDir.getFileName().toString(), Files.readAllBytes(specXml)));
+                    }
+                }
+            }
+        }
+        dir = fpDir.resolve(Constants.FEATURE_GROUPS);
+        if(Files.exists(dir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, '*' + Constants.DOT_XML)) {
+                for (Path fgXml : stream) {
+                    final String fileName = fgXml.getFileName().toString();
+                    entries.add(new Entry(FEATURE_GROUP, fileName.substring(0, fileName.length() - Constants.DOT_XML.length()), Files.readAllBytes(fgXml)));
+                }
+            }
+        }
+        dir = fpDir.resolve(Constants.PACKAGES);
+        if(Files.exists(dir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path pkgDir : stream) {
+                    final Path pkgXml = pkgDir.resolve(Constants.PACKAGE_XML);
+                    if (Files.exists(pkgXml)) {
+                        entries.add(new Entry(PACKAGE, pkgDir.getFileName().toString(), Files.readAllBytes(pkgXml)));
+                    }
+                }
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(fpDir.resolve(FILE_NAME))))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(entries.size());
+            int offset = 0;
+            for (Entry entry : entries) {
+                out.writeByte(entry.kind);
+                out.writeUTF(entry.name);
+                out.writeInt(offset);
+                out.writeInt(entry.content.length);
+                offset += entry.content.length;
+            }
+            for (Entry entry : entries) {
+                out.write(entry.content);
+            }
+        }
+    }
+
+    /**
+     * Loads the index from the feature-pack layout. The index is memory-mapped
+     * if the layout is on the default file-system, otherwise it is read into memory.
+     *
+     * @param fpDir  feature-pack layout directory or the root of the feature-pack archive
+     * @return  the index or null if the feature-pack does not include one
+     * @throws ProvisioningException  in case the index could not be read
+     */
+    public static FeaturePackSpecIndex load(Path fpDir) throws ProvisioningException {
+        final Path file = fpDir.resolve(FILE_NAME);
+        if(!Files.exists(file)) {
+            return null;
+        }
+        final ByteBuffer buf;
+        try {
+            if (file.getFileSystem() == FileSystems.getDefault()) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            } else {
+                buf = ByteBuffer.wrap(Files.readAllBytes(file));
+            }
+            if (buf.getInt() != MAGIC || buf.getShort() != VERSION) {
+                // unknown format, fallback to the XML descriptors
+                return null;
+            }
+            final int size = buf.getInt();
+            final Map<String, int[]> featureSpecs = new HashMap<>();
+            final Map<String, int[]> featureGroups = new HashMap<>();
+            final Map<String, int[]> packages = new HashMap<>();
+            for (int i = 0; i < size; ++i) {
+                final byte kind = buf.get();
+                final String name = readUTF(buf);
+                final int[] location = new int[] {buf.getInt(), buf.getInt()};
+                switch (kind) {
+                    case FEATURE_SPEC:
+                        featureSpecs.put(name, location);
+                        break;
+                    case FEATURE_GROUP:
+                        featureGroups.put(name, location);
+                        break;
+                    case PACKAGE:
+                        packages.put(name, location);
+                        break;
+                    default:
+                        throw new IOException("Unexpected entry kind " + kind);
+                }
+            }
+            return new FeaturePackSpecIndex(buf.slice(), featureSpecs, featureGroups, packages);
+        } catch (IOException | RuntimeException e) {
+            throw new ProvisioningException(Errors.readFile(file), e);
+        }
+    }
+
+    private static String readUTF(ByteBuffer buf) {
+        final byte[] bytes = new byte[buf.getShort() & 0xffff];
+        buf.get(bytes);
+        // names are plain file names, for which the modified UTF-8 matches the standard one
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private final ByteBuffer content;
+    private final Map<String, int[]> featureSpecs;
+    private final Map<String, int[]> featureGroups;
+    private final Map<String, int[]> packages;
+
+    private FeaturePackSpecIndex(ByteBuffer content, Map<String, int[]> featureSpecs, Map<String, int[]> featureGroups, Map<String, int[]> packages) {
+        this.content = content;
+        this.featureSpecs = Collections.unmodifiableMap(featureSpecs);
+        this.featureGroups = Collections.unmodifiableMap(featureGroups);
+        this.packages = Collections.unmodifiableMap(packages);
+    }
+
+    /**
+     * Opens the feature spec descriptor.
+     *
+     * @param name  feature spec name
+     * @return  reader of the descriptor or null if the index does not include the spec
+     */
+    public BufferedReader openFeatureSpec(String name) {
+        return open(featureSpecs.get(name));
+    }
+
+    public BufferedReader openFeatureGroup(String name) {
+        return open(featureGroups.get(name));
+    }
+
+    public BufferedReader openPackage(String name) {
+        return open(packages.get(name));
+    }
+
+    private BufferedReader open(int[] location) {
+        if(location == null) {
+            return null;
+        }
+        final ByteBuffer buf = content.duplicate();
+        buf.position(location[0]);
+        buf.limit(location[0] + location[1]);
+        return new BufferedReader(new InputStreamReader(new ByteBufferInputStream(buf.slice()), StandardCharsets.UTF_8));
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(!buf.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+}
@@ -19,7 +19,6 @@ package org.jboss.provisioning.runtime;
 
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -63,6 +62,13 @@ public class ConfigModelBuilder implements ProvisionedConfig {
         }
     }
 
+    // all the features of the spec are allowed by the stack
+    private static final byte FILTER_ALLOW = 0;
+    // all the features of the spec are filtered out by the stack
+    private static final byte FILTER_DENY = 1;
+    // the decision depends on the feature id
+    private static final byte FILTER_CHECK = 2;
+
     private final class FeatureGroupScopeStack {
         private List<Map<ResolvedFeatureId, ResolvedFeature>> list;
         private int last;
@@ -137,6 +143,327 @@ public class ConfigModelBuilder implements ProvisionedConfig {
         }
     }
 
+    /**
+     * A step of the depth-first walk which orders the features. The walk is performed
+     * with an explicit stack of frames instead of recursive calls, so that the length
+     * of feature dependency chains is not limited by the size of the thread stack.
+     */
+    private abstract static class OrderingFrame {
+
+        /** circular reference loops detected by the frame once it is complete */
+        List<CircularRefInfo> result;
+
+        /**
+         * Performs the next step of the frame.
+         *
+         * @param childResult  the result of the child frame the frame has been waiting for, if any
+         * @return  the child frame to complete before the next step or null, if the frame is complete
+         * @throws ProvisioningException
+         */
+        abstract OrderingFrame next(List<CircularRefInfo> childResult) throws ProvisioningException;
+    }
+
+    /**
+     * Orders the features of a spec, see {@link ConfigModelBuilder#orderSpec(SpecFeatures, boolean)}.
+     */
+    private final class SpecFrame extends OrderingFrame {
+
+        private final SpecFeatures features;
+        private final boolean force;
+        private int i = -1;
+
+        SpecFrame(SpecFeatures features, boolean force) {
+            this.features = features;
+            this.force = force;
+        }
+
+        @Override
+        OrderingFrame next(List<CircularRefInfo> childResult) throws ProvisioningException {
+            if(i < 0) {
+                if(!force) {
+                    if (!features.isFree()) {
+                        return null;
+                    }
+                    features.schedule();
+                }
+                i = 0;
+            } else {
+                result = childResult;
+            }
+            if(i < features.list.size() && result == null) {
+                return new FeatureFrame(features.list.get(i++));
+            }
+            if(!force) {
+                features.free();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Orders a feature after the providers of the capabilities it requires and
+     * the features it depends on and references. If the feature has already been scheduled
+     * for ordering but hasn't been ordered yet, it means there is a circular feature
+     * reference loop, in which case the feature is not ordered and the loop is
+     * returned to the feature that initiated it.
+     */
+    private final class FeatureFrame extends OrderingFrame {
+
+        private static final int START = 0;
+        private static final int PROVIDERS = 1;
+        private static final int DEPS = 2;
+        private static final int REFS = 3;
+        private static final int LOOPS = 4;
+
+        private final ResolvedFeature feature;
+        private int state = START;
+        private List<CircularRefInfo> circularRefs;
+        private Iterator<CapabilitySpec> requiredCaps = Collections.emptyIterator();
+        private Iterator<ResolvedFeatureId> refIds;
+
+        // the loops initiated by the feature which are ordered once the feature has been processed
+        private List<CircularRefInfo> initiatedCircularRefs;
+        private boolean firstInConfig;
+        private int loopIndex;
+        private boolean prevOrderRefSpec;
+        private boolean endBatch;
+
+        FeatureFrame(ResolvedFeature feature) {
+            this.feature = feature;
+        }
+
+        @Override
+        OrderingFrame next(List<CircularRefInfo> childResult) throws ProvisioningException {
+            switch(state) {
+                case START:
+                    if(feature.isOrdered()) {
+                        return null;
+                    }
+                    if(!feature.isFree()) {
+                        result = Collections.singletonList(new CircularRefInfo(feature));
+                        return null;
+                    }
+                    feature.schedule();
+                    if(feature.spec.xmlSpec.requiresCapabilities()) {
+                        requiredCaps = feature.spec.xmlSpec.getRequiredCapabilities().iterator();
+                    }
+                    state = PROVIDERS;
+                    break;
+                case LOOPS:
+                    if(childResult != null) {
+                        throw new IllegalStateException();
+                    }
+                    return nextInitiatedLoop();
+                default:
+                    circularRefs = addCircularRefs(circularRefs, childResult);
+            }
+
+            if(state == PROVIDERS) {
+                while(requiredCaps.hasNext()) {
+                    final CapabilitySpec capSpec = requiredCaps.next();
+                    final String resolvedCap = feature.resolveCapability(capSpec);
+                    if(resolvedCap == null) {
+                        continue;
+                    }
+                    final CapabilityProviders providers;
+                    try {
+                        providers = getProviders(resolvedCap, false);
+                    } catch(ProvisioningException e) {
+                        throw new ProvisioningException(Errors.noCapabilityProvider(feature, capSpec, resolvedCap));
+                    }
+                    return new ProvidersFrame(providers);
+                }
+                refIds = feature.deps.isEmpty() ? Collections.emptyIterator() : feature.deps.keySet().iterator();
+                state = DEPS;
+            }
+            if(state == DEPS) {
+                if(refIds.hasNext()) {
+                    return new RefFrame(feature, refIds.next(), false);
+                }
+                refIds = feature.resolveRefs().iterator();
+                state = REFS;
+            }
+            if(refIds.hasNext()) {
+                return new RefFrame(feature, refIds.next(), true);
+            }
+            return refsOrdered();
+        }
+
+        private OrderingFrame refsOrdered() throws ProvisioningException {
+            initiatedCircularRefs = Collections.emptyList();
+            if(circularRefs != null) {
+                // there is a one or more circular feature reference loop(s)
+
+                // check whether there is a loop that this feature didn't initiate
+                // if there is such a loop then propagate the loops this feature didn't start to their origins
+                if(circularRefs.size() == 1) {
+                    final CircularRefInfo next = circularRefs.get(0);
+                    if (next.loopedOn.id.equals(feature.id)) { // this feature initiated the loop
+                        circularRefs = Collections.emptyList();
+                        initiatedCircularRefs = Collections.singletonList(next);
+                    } else {
+                        next.setNext(feature);
+                        feature.free();
+                    }
+                } else {
+                    final Iterator<CircularRefInfo> i = circularRefs.iterator();
+                    while (i.hasNext()) {
+                        final CircularRefInfo next = i.next();
+                        if (next.loopedOn.id.equals(feature.id)) {
+                            // this feature initiated the loop
+                            i.remove();
+                            initiatedCircularRefs = PmCollections.add(initiatedCircularRefs, next);
+                        } else {
+                            // the feature is in the middle of the loop
+                            next.setNext(feature);
+                            feature.free();
+                        }
+                    }
+                }
+                if(!circularRefs.isEmpty()) {
+                    result = circularRefs;
+                    return null;
+                }
+                // all the loops were initiated by this feature
+            }
+
+            if (initiatedCircularRefs.isEmpty()) {
+                ordered(feature);
+                return null;
+            }
+            prevOrderRefSpec = orderReferencedSpec;
+            orderReferencedSpec = false;
+            // sort according to the appearance in the config
+            initiatedCircularRefs.sort((o1, o2) -> o1.firstInConfig.includeNo - o2.firstInConfig.includeNo);
+            if(initiatedCircularRefs.get(0).firstInConfig.includeNo < feature.includeNo) {
+                feature.free();
+                firstInConfig = true;
+            } else {
+                if(!inBatch) {
+                    inBatch = true;
+                    feature.startBatch();
+                    endBatch = true;
+                }
+                ordered(feature);
+                initiatedCircularRefs.sort((o1, o2) -> o1.nextOnPath.includeNo - o2.nextOnPath.includeNo);
+            }
+            state = LOOPS;
+            return nextInitiatedLoop();
+        }
+
+        private OrderingFrame nextInitiatedLoop() throws ProvisioningException {
+            if(loopIndex < initiatedCircularRefs.size()) {
+                final CircularRefInfo ref = initiatedCircularRefs.get(loopIndex++);
+                return new FeatureFrame(firstInConfig ? ref.firstInConfig : ref.nextOnPath);
+            }
+            if(endBatch) {
+                inBatch = false;
+                orderedFeatures.get(orderedFeatures.size() - 1).endBatch();
+            }
+            orderReferencedSpec = prevOrderRefSpec;
+            return null;
+        }
+    }
+
+    /**
+     * Orders the providers of a capability until the capability is provided.
+     */
+    private final class ProvidersFrame extends OrderingFrame {
+
+        private final CapabilityProviders providers;
+        private int specIndex = -1;
+        private int featureIndex;
+
+        ProvidersFrame(CapabilityProviders providers) {
+            this.providers = providers;
+        }
+
+        @Override
+        OrderingFrame next(List<CircularRefInfo> childResult) throws ProvisioningException {
+            if(providers.isProvided()) {
+                result = null;
+                return null;
+            }
+            if(specIndex < 0) {
+                specIndex = 0;
+            } else if(result == null) {
+                result = childResult;
+            }
+            if(specIndex < providers.specs.size()) {
+                final SpecFeatures specFeatures = providers.specs.get(specIndex++);
+                return new SpecFrame(specFeatures, !specFeatures.isFree());
+            }
+            if(featureIndex < providers.features.size()) {
+                return new FeatureFrame(providers.features.get(featureIndex++));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Orders a feature reference. In case of a spec reference the features of
+     * the referenced spec are ordered first.
+     */
+    private final class RefFrame extends OrderingFrame {
+
+        private final ResolvedFeature feature;
+        private final ResolvedFeatureId refId;
+        private final boolean specRef;
+        private boolean specOrdered;
+        private boolean depOrdered;
+
+        RefFrame(ResolvedFeature feature, ResolvedFeatureId refId, boolean specRef) {
+            this.feature = feature;
+            this.refId = refId;
+            this.specRef = specRef;
+        }
+
+        @Override
+        OrderingFrame next(List<CircularRefInfo> childResult) throws ProvisioningException {
+            if(depOrdered) {
+                result = childResult;
+                return null;
+            }
+            if(specOrdered) {
+                if(childResult != null) {
+                    List<CircularRefInfo> featureLoops = null;
+                    for (int i = 0; i < childResult.size(); ++i) {
+                        final CircularRefInfo specLoop = childResult.get(i);
+                        if (specLoop.nextOnPath.id.equals(refId)) {
+                            if (featureLoops == null) {
+                                featureLoops = Collections.singletonList(specLoop);
+                            } else {
+                                if (featureLoops.size() == 1) {
+                                    final CircularRefInfo first = featureLoops.get(0);
+                                    featureLoops = new ArrayList<>(2);
+                                    featureLoops.add(first);
+                                }
+                                featureLoops.add(specLoop);
+                            }
+                        }
+                    }
+                    if (featureLoops != null) {
+                        result = featureLoops;
+                        return null;
+                    }
+                }
+            } else if(orderReferencedSpec && specRef && !feature.spec.id.equals(refId.specId)) {
+                final SpecFeatures targetSpecFeatures = featuresBySpec.get(refId.specId);
+                if (targetSpecFeatures == null) {
+                    throw new ProvisioningDescriptionException(Errors.unresolvedFeatureDep(feature, refId));
+                }
+                specOrdered = true;
+                return new SpecFrame(targetSpecFeatures, false);
+            }
+            final ResolvedFeature dep = featuresById.get(refId);
+            if (dep == null) {
+                throw new ProvisioningDescriptionException(Errors.unresolvedFeatureDep(feature, refId));
+            }
+            depOrdered = true;
+            return new FeatureFrame(dep);
+        }
+    }
+
     public static ConfigModelBuilder anonymous() {
         return new ConfigModelBuilder(null, null);
     }
@@ -168,6 +495,8 @@ public class ConfigModelBuilder implements ProvisionedConfig {
     private boolean inBatch;
 
     private Map<ArtifactCoords.Gav, List<ResolvedFeatureGroupConfig>> fgConfigStacks = new HashMap<>();
+    // the filters of the current feature group config stacks compiled per spec
+    private Map<ArtifactCoords.Gav, Map<ResolvedSpecId, Byte>> specFilters = new HashMap<>();
 
     private ConfigModelBuilder(String model, String name) {
         this.model = model;
@@ -198,6 +527,7 @@ public class ConfigModelBuilder implements ProvisionedConfig {
             fgConfigStack = new ArrayList<>();
             fgConfigStacks.put(gav, fgConfigStack);
             fgConfigStack.add(fgConfig);
+            specFilters.remove(gav);
             return true;
         }
         int i = fgConfigStack.size() - 1;
@@ -220,6 +550,7 @@ public class ConfigModelBuilder implements ProvisionedConfig {
             }
         }
         fgConfigStack.add(fgConfig);
+        specFilters.remove(gav);
         return true;
     }
 
@@ -231,6 +562,7 @@ public class ConfigModelBuilder implements ProvisionedConfig {
         if(stack.isEmpty()) {
             throw new IllegalStateException("Feature group stack is empty for " + gav);
         }
+        specFilters.remove(gav);
         return stack.remove(stack.size() - 1);
     }
 
@@ -293,6 +625,22 @@ public class ConfigModelBuilder implements ProvisionedConfig {
         if (fgConfigStack == null) {
             return false;
         }
+        Map<ResolvedSpecId, Byte> filters = specFilters.get(specId.gav);
+        if(filters == null) {
+            filters = new HashMap<>();
+            specFilters.put(specId.gav, filters);
+        }
+        Byte filter = filters.get(specId);
+        if(filter == null) {
+            filter = compileFilter(fgConfigStack, specId);
+            filters.put(specId, filter);
+        }
+        if(filter == FILTER_ALLOW) {
+            return false;
+        }
+        if(filter == FILTER_DENY) {
+            return true;
+        }
         int i = fgConfigStack.size() - 1;
         while (i >= 0) {
             final ResolvedFeatureGroupConfig fgConfig = fgConfigStack.get(i--);
@@ -320,6 +668,33 @@ public class ConfigModelBuilder implements ProvisionedConfig {
         return false;
     }
 
+    /**
+     * Evaluates the feature group config stack for the spec. The features of the spec
+     * are either all allowed, all filtered out or have to be checked individually.
+     */
+    private static byte compileFilter(List<ResolvedFeatureGroupConfig> fgConfigStack, ResolvedSpecId specId) {
+        byte filter = FILTER_ALLOW;
+        for(ResolvedFeatureGroupConfig fgConfig : fgConfigStack) {
+            if (fgConfig.inheritFeatures) {
+                if (fgConfig.excludedSpecs.contains(specId)) {
+                    if (!fgConfig.includesFeaturesOf(specId)) {
+                        return FILTER_DENY;
+                    }
+                    filter = FILTER_CHECK;
+                } else if (fgConfig.excludesFeaturesOf(specId)) {
+                    filter = FILTER_CHECK;
+                }
+            } else if (fgConfig.includesFeaturesOf(specId)) {
+                filter = FILTER_CHECK;
+            } else if (!fgConfig.includedSpecs.contains(specId)) {
+                return FILTER_DENY;
+            } else if (fgConfig.excludesFeaturesOf(specId)) {
+                filter = FILTER_CHECK;
+            }
+        }
+        return filter;
+    }
+
     @Override
     public String getModel() {
         return model;
@@ -446,272 +821,44 @@ public class ConfigModelBuilder implements ProvisionedConfig {
      * @throws ProvisioningException
      */
     private List<CircularRefInfo> orderSpec(SpecFeatures features, boolean force) throws ProvisioningException {
-        if(!force) {
-            if (!features.isFree()) {
-                return null;
-            }
-            features.schedule();
-        }
-
-        List<CircularRefInfo> allCircularRefs = null;
-        int i = 0;
-        while(i < features.list.size() && allCircularRefs == null) {
-            allCircularRefs = orderFeature(features.list.get(i++));
-/*            if(circularRefs != null) {
-                if(allCircularRefs == null) {
-                    allCircularRefs = circularRefs;
-                } else {
-                    if(allCircularRefs.size() == 1) {
-                        final CircularRefInfo first = allCircularRefs.get(0);
-                        allCircularRefs = new ArrayList<>(1 + circularRefs.size());
-                        allCircularRefs.add(first);
-                    }
-                    allCircularRefs.addAll(circularRefs);
-                }
-            }
-*/        }
-        if(!force) {
-            features.free();
-        }
-        return allCircularRefs;
-    }
-
-    /**
-     * Attempts to order the feature. If the feature has already been scheduled
-     * for ordering but haven't been ordered yet, it means there is a circular feature
-     * reference loop, in which case the feature is not ordered and false is returned.
-     *
-     * @param feature  the feature to put in the ordered list
-     * @return  whether the feature was added to the ordered list or not
-     * @throws ProvisioningException
-     */
-    private List<CircularRefInfo> orderFeature(ResolvedFeature feature) throws ProvisioningException {
-        if(feature.isOrdered()) {
-            return null;
-        }
-        if(!feature.isFree()) {
-            return Collections.singletonList(new CircularRefInfo(feature));
-        }
-        feature.schedule();
-
-        List<CircularRefInfo> circularRefs = null;
-        if(feature.spec.xmlSpec.requiresCapabilities()) {
-            circularRefs = orderProviders(feature, circularRefs);
-        }
-        if(!feature.deps.isEmpty()) {
-            circularRefs = orderRefs(feature, feature.deps.keySet(), false, circularRefs);
-        }
-        List<ResolvedFeatureId> refIds = feature.resolveRefs();
-        if(!refIds.isEmpty()) {
-            circularRefs = orderRefs(feature, refIds, true, circularRefs);
-        }
-
-        List<CircularRefInfo> initiatedCircularRefs = Collections.emptyList();
-        if(circularRefs != null) {
-            // there is a one or more circular feature reference loop(s)
-
-            // check whether there is a loop that this feature didn't initiate
-            // if there is such a loop then propagate the loops this feature didn't start to their origins
-            if(circularRefs.size() == 1) {
-                final CircularRefInfo next = circularRefs.get(0);
-                if (next.loopedOn.id.equals(feature.id)) { // this feature initiated the loop
-                    circularRefs = Collections.emptyList();
-                    initiatedCircularRefs = Collections.singletonList(next);
-                } else {
-                    next.setNext(feature);
-                    feature.free();
-                }
-            } else {
-                final Iterator<CircularRefInfo> i = circularRefs.iterator();
-                while (i.hasNext()) {
-                    final CircularRefInfo next = i.next();
-                    if (next.loopedOn.id.equals(feature.id)) {
-                        // this feature initiated the loop
-                        i.remove();
-                        initiatedCircularRefs = PmCollections.add(initiatedCircularRefs, next);
-                    } else {
-                        // the feature is in the middle of the loop
-                        next.setNext(feature);
-                        feature.free();
-                    }
-                }
-            }
-            if(!circularRefs.isEmpty()) {
-                return circularRefs;
-            }
-            // all the loops were initiated by this feature
-        }
-
-        if (!initiatedCircularRefs.isEmpty()) {
-            final boolean prevOrderRefSpec = orderReferencedSpec;
-            orderReferencedSpec = false;
-            // sort according to the appearance in the config
-            initiatedCircularRefs.sort((o1, o2) -> o1.firstInConfig.includeNo - o2.firstInConfig.includeNo);
-            if(initiatedCircularRefs.get(0).firstInConfig.includeNo < feature.includeNo) {
-                feature.free();
-                for(CircularRefInfo ref : initiatedCircularRefs) {
-                    if(orderFeature(ref.firstInConfig) != null) {
-                        throw new IllegalStateException();
-                    }
-                }
+        OrderingFrame frame = new SpecFrame(features, force);
+        final List<OrderingFrame> stack = new ArrayList<>();
+        List<CircularRefInfo> childResult = null;
+        while(true) {
+            final OrderingFrame child = frame.next(childResult);
+            if(child != null) {
+                stack.add(frame);
+                frame = child;
+                childResult = null;
+            } else if(stack.isEmpty()) {
+                return frame.result;
             } else {
-                final boolean endBatch;
-                if(inBatch) {
-                    endBatch = false;
-                } else {
-                    inBatch = true;
-                    feature.startBatch();
-                    endBatch = true;
-                }
-                feature.ordered();
-                orderedFeatures.add(feature);
-                initiatedCircularRefs.sort((o1, o2) -> o1.nextOnPath.includeNo - o2.nextOnPath.includeNo);
-                for(CircularRefInfo ref : initiatedCircularRefs) {
-                    if(orderFeature(ref.nextOnPath) != null) {
-                        throw new IllegalStateException();
-                    }
-                }
-                if(endBatch) {
-                    inBatch = false;
-                    this.orderedFeatures.get(orderedFeatures.size() - 1).endBatch();
-                }
+                childResult = frame.result;
+                frame = stack.remove(stack.size() - 1);
             }
-            orderReferencedSpec = prevOrderRefSpec;
-        } else {
-            feature.ordered();
-            orderedFeatures.add(feature);
         }
-        return null;
     }
 
-    private List<CircularRefInfo> orderProviders(ResolvedFeature feature, List<CircularRefInfo> circularRefs)
-            throws ProvisioningException {
-        for(CapabilitySpec capSpec : feature.spec.xmlSpec.getRequiredCapabilities()) {
-            final String resolvedCap = feature.resolveCapability(capSpec);
-            if(resolvedCap == null) {
-                continue;
-            }
-            final CapabilityProviders providers;
-            try {
-                providers = getProviders(resolvedCap, false);
-            } catch(ProvisioningException e) {
-                throw new ProvisioningException(Errors.noCapabilityProvider(feature, capSpec, resolvedCap));
-            }
-            final List<CircularRefInfo> circles = orderProviders(providers);
-            if(circularRefs == null) {
-                circularRefs = circles;
-            } else {
-                if(circularRefs.size() == 1) {
-                    final CircularRefInfo first = circularRefs.get(0);
-                    circularRefs = new ArrayList<>(1 + circles.size());
-                    circularRefs.add(first);
-                }
-                circularRefs.addAll(circles);
-            }
-        }
-        return circularRefs;
+    private void ordered(ResolvedFeature feature) throws ProvisioningDescriptionException {
+        feature.ordered();
+        // the capabilities provided by the spec are tracked per config
+        featuresBySpec.get(feature.spec.id).provided();
+        orderedFeatures.add(feature);
     }
 
-    private List<CircularRefInfo> orderProviders(CapabilityProviders providers) throws ProvisioningException {
-        if(!providers.isProvided()) {
-            List<CircularRefInfo> firstLoop = null;
-            if(!providers.specs.isEmpty()) {
-                for(SpecFeatures specFeatures : providers.specs) {
-                    final List<CircularRefInfo> loop = orderSpec(specFeatures, !specFeatures.isFree());
-                    if(providers.isProvided()) {
-                        return null;
-                    }
-                    if(firstLoop == null) {
-                        firstLoop = loop;
-                    }
-                }
-            }
-            if (!providers.features.isEmpty()) {
-                for (ResolvedFeature provider : providers.features) {
-                    final List<CircularRefInfo> loop = orderFeature(provider);
-                    if(providers.isProvided()) {
-                        return null;
-                    }
-                    if(firstLoop == null) {
-                        firstLoop = loop;
-                    }
-                }
-            }
-            return firstLoop;
+    private static List<CircularRefInfo> addCircularRefs(List<CircularRefInfo> circularRefs, List<CircularRefInfo> added) {
+        if(added == null) {
+            return circularRefs;
         }
-        return null;
-    }
-
-    /**
-     * Attempts to order the referenced features.
-     *
-     * @param feature  parent feature
-     * @param refIds  referenced features ids
-     * @param specRefs  whether these referenced features represent actual spec references or feature dependencies
-     * @return  feature ids that form circular dependency loops
-     * @throws ProvisioningException
-     */
-    private List<CircularRefInfo> orderRefs(ResolvedFeature feature, Collection<ResolvedFeatureId> refIds, boolean specRefs, List<CircularRefInfo> circularRefs) throws ProvisioningException {
-        for(ResolvedFeatureId refId : refIds) {
-            final List<CircularRefInfo> loopedOnFeature = orderRef(feature, refId, specRefs);
-            if(loopedOnFeature != null) {
-                if(circularRefs == null) {
-                    circularRefs = loopedOnFeature;
-                } else {
-                    if(circularRefs.size() == 1) {
-                        final CircularRefInfo first = circularRefs.get(0);
-                        circularRefs = new ArrayList<>(1 + loopedOnFeature.size());
-                        circularRefs.add(first);
-                    }
-                    circularRefs.addAll(loopedOnFeature);
-                }
-            }
+        if(circularRefs == null) {
+            return added;
         }
-        return circularRefs;
-    }
-
-    /**
-     * Attempts to order a feature reference.
-     *
-     * @param feature  parent feature
-     * @param refId  referenced feature id
-     * @param specRef  whether the referenced feature represents a spec reference or a feature dependency
-     * @return  true if the referenced feature was ordered, false if the feature was not ordered because of the circular reference loop
-     * @throws ProvisioningException
-     */
-    private List<CircularRefInfo> orderRef(ResolvedFeature feature, ResolvedFeatureId refId, boolean specRef) throws ProvisioningException {
-        if(orderReferencedSpec && specRef && !feature.spec.id.equals(refId.specId)) {
-            final SpecFeatures targetSpecFeatures = featuresBySpec.get(refId.specId);
-            if (targetSpecFeatures == null) {
-                throw new ProvisioningDescriptionException(Errors.unresolvedFeatureDep(feature, refId));
-            }
-            final List<CircularRefInfo> specLoops = orderSpec(targetSpecFeatures, false);
-            if (specLoops != null) {
-                List<CircularRefInfo> featureLoops = null;
-                for (int i = 0; i < specLoops.size(); ++i) {
-                    final CircularRefInfo specLoop = specLoops.get(i);
-                    if (specLoop.nextOnPath.id.equals(refId)) {
-                        if (featureLoops == null) {
-                            featureLoops = Collections.singletonList(specLoop);
-                        } else {
-                            if (featureLoops.size() == 1) {
-                                final CircularRefInfo first = featureLoops.get(0);
-                                featureLoops = new ArrayList<>(2);
-                                featureLoops.add(first);
-                            }
-                            featureLoops.add(specLoop);
-                        }
-                    }
-                }
-                if (featureLoops != null) {
-                    return featureLoops;
-                }
-            }
-        }
-        final ResolvedFeature dep = featuresById.get(refId);
-        if (dep == null) {
-            throw new ProvisioningDescriptionException(Errors.unresolvedFeatureDep(feature, refId));
+        if(circularRefs.size() == 1) {
+            final CircularRefInfo first = circularRefs.get(0);
+            circularRefs = new ArrayList<>(1 + added.size());
+            circularRefs.add(first);
         }
-        return orderFeature(dep);
+        circularRefs.addAll(added);
+        return circularRefs;
     }
 }
@@ -18,12 +18,15 @@
 package org.jboss.provisioning.runtime;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,13 +38,17 @@ import org.jboss.provisioning.Constants;
 import org.jboss.provisioning.Errors;
 import org.jboss.provisioning.ProvisioningDescriptionException;
 import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.FeatureGroupConfigSupport;
 import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.PackageConfig;
+import org.jboss.provisioning.layout.FeaturePackSpecIndex;
 import org.jboss.provisioning.spec.ConfigId;
 import org.jboss.provisioning.spec.FeatureGroupSpec;
 import org.jboss.provisioning.spec.FeaturePackSpec;
 import org.jboss.provisioning.spec.FeatureSpec;
 import org.jboss.provisioning.state.FeaturePack;
 import org.jboss.provisioning.util.PmCollections;
+import org.jboss.provisioning.util.ZipArchive;
 import org.jboss.provisioning.xml.FeatureGroupXmlParser;
 import org.jboss.provisioning.xml.FeatureSpecXmlParser;
 
@@ -53,23 +60,43 @@ public class FeaturePackRuntime implements FeaturePack<PackageRuntime> {
 
     static class Builder {
         final ArtifactCoords.Gav gav;
+        /** root of the feature-pack archive the metadata and the package content is read from */
+        final Path src;
+        /** on-disk layout directory the content of the resolved packages is extracted to */
         final Path dir;
+        /** the resource backing src which has to be closed once the provisioning runtime is closed */
+        final Closeable srcHandle;
+        /** the archive the content is extracted from into dir or null if src is already an unpacked layout */
+        final ZipArchive archive;
+        /** the index of the spec descriptors or null if the feature-pack was built without it */
+        final FeaturePackSpecIndex specIndex;
         final FeaturePackSpec spec;
+        /** process-wide cache of parsed specs or null */
+        SpecCache specCache;
         boolean ordered;
         private Map<String, ResolvedFeatureSpec> featureSpecs = null;
         private Map<String, FeatureGroupSpec> fgSpecs = null;
+        /** feature group configs resolved against this feature-pack keyed by the config instance */
+        private Map<FeatureGroupConfigSupport, ResolvedFeatureGroupConfig> resolvedFgConfigs = Collections.emptyMap();
 
         Map<String, PackageRuntime.Builder> pkgBuilders = Collections.emptyMap();
         private List<String> pkgOrder = new ArrayList<>();
 
         private List<FeaturePackConfig> fpConfigStack = Collections.emptyList();
+        // the names of the packages excluded and included by the configs on the stack up to the corresponding config
+        private List<Set<String>> excludedPackages = new ArrayList<>();
+        private List<Set<String>> includedPackages = new ArrayList<>();
         private List<List<FeaturePackConfig>> recordedStacks = Collections.emptyList();
         private FeaturePackConfig blockedPackageInheritance;
         private FeaturePackConfig blockedConfigInheritance;
 
-        private Builder(ArtifactCoords.Gav gav, FeaturePackSpec spec, Path dir) {
+        private Builder(ArtifactCoords.Gav gav, FeaturePackSpec spec, Path src, Path dir, Closeable srcHandle, ZipArchive archive) throws ProvisioningException {
             this.gav = gav;
+            this.src = src;
             this.dir = dir;
+            this.srcHandle = srcHandle;
+            this.archive = archive;
+            this.specIndex = FeaturePackSpecIndex.load(src);
             this.spec = spec;
         }
 
@@ -83,6 +110,12 @@ public class FeaturePackRuntime implements FeaturePack<PackageRuntime> {
             pkgOrder.add(name);
         }
 
+        /**
+         * Returns the feature group spec, which is shared by all the configs
+         * including the group and by the spec cache. The spec is not modified
+         * during the config resolution, the feature configs which are
+         * initialized with the foreign keys of their parents are copied.
+         */
         FeatureGroupSpec getFeatureGroupSpec(String name) throws ProvisioningException {
             FeatureGroupSpec fgSpec = null;
             if(fgSpecs == null) {
@@ -90,19 +123,40 @@ public class FeaturePackRuntime implements FeaturePack<PackageRuntime> {
             } else {
                 fgSpec = fgSpecs.get(name);
             }
+            if(fgSpec == null && specCache != null) {
+                fgSpec = specCache.getFeatureGroupSpec(gav, name);
+                if(fgSpec != null) {
+                    fgSpecs.put(name, fgSpec);
+                }
+            }
             if(fgSpec == null) {
-                final Path specXml = dir.resolve(Constants.FEATURE_GROUPS).resolve(name + ".xml");
-                if(!Files.exists(specXml)) {
+                final Path specXml = src.resolve(Constants.FEATURE_GROUPS).resolve(name + ".xml");
+                final BufferedReader indexed = specIndex == null ? null : specIndex.openFeatureGroup(name);
+                if(indexed == null && !Files.exists(specXml)) {
                     throw new ProvisioningDescriptionException(Errors.pathDoesNotExist(specXml));
                 }
-                try(BufferedReader reader = Files.newBufferedReader(specXml)) {
+                try(BufferedReader reader = indexed == null ? Files.newBufferedReader(specXml) : indexed) {
                     fgSpec = FeatureGroupXmlParser.getInstance().parse(reader);
                 } catch (Exception e) {
                     throw new ProvisioningException(Errors.parseXml(specXml), e);
                 }
                 fgSpecs.put(name, fgSpec);
+                if(specCache != null) {
+                    specCache.putFeatureGroupSpec(gav, name, fgSpec);
+                }
+            }
+            return fgSpec;
+        }
+
+        ResolvedFeatureGroupConfig getResolvedFeatureGroupConfig(FeatureGroupConfigSupport fgConfig) {
+            return resolvedFgConfigs.get(fgConfig);
+        }
+
+        void addResolvedFeatureGroupConfig(FeatureGroupConfigSupport fgConfig, ResolvedFeatureGroupConfig resolvedFgConfig) {
+            if(resolvedFgConfigs.isEmpty()) {
+                resolvedFgConfigs = new IdentityHashMap<>();
             }
-            return new FeatureGroupSpec(fgSpec);
+            resolvedFgConfigs.put(fgConfig, resolvedFgConfig);
         }
 
         ResolvedFeatureSpec getFeatureSpec(String name) throws ProvisioningDescriptionException {
@@ -113,15 +167,21 @@ public class FeaturePackRuntime implements FeaturePack<PackageRuntime> {
                 resolvedSpec = featureSpecs.get(name);
             }
             if(resolvedSpec == null) {
-                final Path specXml = dir.resolve(Constants.FEATURES).resolve(name).resolve(Constants.SPEC_XML);
-                if(!Files.exists(specXml)) {
-                    throw new ProvisioningDescriptionException("Failed to locate feature spec '" + name + "' in " + gav);
-                }
-                final FeatureSpec xmlSpec;
-                try(BufferedReader reader = Files.newBufferedReader(specXml)) {
-                    xmlSpec = FeatureSpecXmlParser.getInstance().parse(reader);
-                } catch (Exception e) {
-                    throw new ProvisioningDescriptionException(Errors.parseXml(specXml), e);
+                FeatureSpec xmlSpec = specCache == null ? null : specCache.getFeatureSpec(gav, name);
+                if(xmlSpec == null) {
+                    final Path specXml = src.resolve(Constants.FEATURES).resolve(name).resolve(Constants.SPEC_XML);
+                    final BufferedReader indexed = specIndex == null ? null : specIndex.openFeatureSpec(name);
+                    if(indexed == null && !Files.exists(specXml)) {
+                        throw new ProvisioningDescriptionException("Failed to locate feature spec '" + name + "' in " + gav);
+                    }
+                    try(BufferedReader reader = indexed == null ? Files.newBufferedReader(specXml) : indexed) {
+                        xmlSpec = FeatureSpecXmlParser.getInstance().parse(reader);
+                    } catch (Exception e) {
+                        throw new ProvisioningDescriptionException(Errors.parseXml(specXml), e);
+                    }
+                    if(specCache != null) {
+                        specCache.putFeatureSpec(gav, xmlSpec);
+                    }
                 }
                 resolvedSpec = new ResolvedFeatureSpec(new ResolvedSpecId(gav, xmlSpec.getName()), xmlSpec);
                 featureSpecs.put(name, resolvedSpec);
@@ -129,6 +189,15 @@ public class FeaturePackRuntime implements FeaturePack<PackageRuntime> {
             return resolvedSpec;
         }
 
+        /**
+         * Returns the id of the spec, which is the id of the resolved spec, if the spec
+         * has already been loaded, so that the equal ids are the same instance.
+         */
+        ResolvedSpecId getSpecId(String name) {
+            final ResolvedFeatureSpec resolvedSpec = featureSpecs == null ? null : featureSpecs.get(name);
+            return resolvedSpec == null ? new ResolvedSpecId(gav, name) : resolvedSpec.id;
+        }
+
         boolean isInheritPackages() {
             return blockedPackageInheritance == null;
         }
@@ -143,6 +212,17 @@ public class FeaturePackRuntime implements FeaturePack<PackageRuntime> {
 
         void push(FeaturePackConfig fpConfig) {
             fpConfigStack = PmCollections.add(fpConfigStack, fpConfig);
+            excludedPackages.add(union(excludedPackages, fpConfig.getExcludedPackages()));
+            if(fpConfig.hasIncludedPackages()) {
+                final Collection<PackageConfig> included = fpConfig.getIncludedPackages();
+                final List<String> names = new ArrayList<>(included.size());
+                for(PackageConfig pkgConfig : included) {
+                    names.add(pkgConfig.getName());
+                }
+                includedPackages.add(union(includedPackages, names));
+            } else {
+                includedPackages.add(union(includedPackages, Collections.emptyList()));
+            }
             if(blockedPackageInheritance == null && !fpConfig.isInheritPackages()) {
                 blockedPackageInheritance = fpConfig;
             }
@@ -162,6 +242,8 @@ public class FeaturePackRuntime implements FeaturePack<PackageRuntime> {
                     fpConfigStack = Collections.singletonList(fpConfigStack.get(0));
                 }
             }
+            excludedPackages.remove(excludedPackages.size() - 1);
+            includedPackages.remove(includedPackages.size() - 1);
             if(popped == blockedPackageInheritance) {
                 blockedPackageInheritance = null;
             }
@@ -199,24 +281,25 @@ public class FeaturePackRuntime implements FeaturePack<PackageRuntime> {
         }
 
         boolean isPackageIncluded(String packageName) {
-            int i = fpConfigStack.size() - 1;
-            while(i >= 0) {
-                final FeaturePackConfig fpConfig = fpConfigStack.get(i--);
-                if(fpConfig.isPackageIncluded(packageName)) {
-                    return true;
-                }
-            }
-            return false;
+            return !includedPackages.isEmpty() && includedPackages.get(includedPackages.size() - 1).contains(packageName);
         }
 
         boolean isPackageExcluded(String packageName) {
-            int i = fpConfigStack.size() - 1;
-            while(i >= 0) {
-                if(fpConfigStack.get(i--).isPackageExcluded(packageName)) {
-                    return true;
-                }
+            return !excludedPackages.isEmpty() && excludedPackages.get(excludedPackages.size() - 1).contains(packageName);
+        }
+
+        private static Set<String> union(List<Set<String>> stack, Collection<String> names) {
+            final Set<String> current = stack.isEmpty() ? Collections.emptySet() : stack.get(stack.size() - 1);
+            if(names.isEmpty()) {
+                return current;
             }
-            return false;
+            if(current.isEmpty()) {
+                return names instanceof Set ? (Set<String>) names : new HashSet<>(names);
+            }
+            final Set<String> union = new HashSet<>(current.size() + names.size());
+            union.addAll(current);
+            union.addAll(names);
+            return union;
         }
 
         boolean isModelOnlyConfigExcluded(ConfigId configId) {
@@ -286,8 +369,8 @@ public class FeaturePackRuntime implements FeaturePack<PackageRuntime> {
         }
     }
 
-    static Builder builder(ArtifactCoords.Gav gav, FeaturePackSpec spec, Path dir) {
-        return new Builder(gav, spec, dir);
+    static Builder builder(ArtifactCoords.Gav gav, FeaturePackSpec spec, Path src, Path dir, Closeable srcHandle, ZipArchive archive) throws ProvisioningException {
+        return new Builder(gav, spec, src, dir, srcHandle, archive);
     }
 
     private final FeaturePackSpec spec;
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.jboss.provisioning.Errors;
+import org.jboss.provisioning.MessageWriter;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.state.ContentManifest;
+import org.jboss.provisioning.util.HashUtils;
+import org.jboss.provisioning.util.PathsUtils;
+
+/**
+ * Brings an existing installation in sync with the staged one writing, replacing
+ * and deleting only the files that differ.
+ *
+ * The installed files are compared to the staged ones using the content manifest
+ * recorded by the previous incremental installation. An installed file whose size and
+ * last modification time match its manifest entry is not re-read. Files that are not
+ * in the manifest are compared by their size and then their hash.
+ * The result is the same as replacing the installation with the staged directory.
+ *
+ * @author agent
+ */
+class IncrementalInstaller {
+
+    /**
+     * @param stagedContent  hashes of the staged files recorded when they were written or null,
+     * the staged files that don't match their entries are hashed
+     */
+    static void install(Path stagedDir, ContentManifest stagedContent, Path installDir, MessageWriter messageWriter) throws ProvisioningException {
+        try {
+            new IncrementalInstaller(stagedDir, stagedContent, installDir).doInstall(messageWriter);
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.copyFile(stagedDir, installDir), e);
+        }
+    }
+
+    private final Path stagedDir;
+    private final ContentManifest stagedContent;
+    private final Path installDir;
+    private final Path manifestFile;
+    private final Map<String, Path> stagedFiles = new TreeMap<>();
+    private final Set<String> stagedDirs = new HashSet<>();
+    private int written;
+    private int deleted;
+
+    private IncrementalInstaller(Path stagedDir, ContentManifest stagedContent, Path installDir) {
+        this.stagedDir = stagedDir;
+        this.stagedContent = stagedContent;
+        this.installDir = installDir;
+        this.manifestFile = PathsUtils.getContentManifest(installDir);
+    }
+
+    private void doInstall(MessageWriter messageWriter) throws IOException {
+        Files.createDirectories(installDir);
+        final ContentManifest installed = ContentManifest.read(manifestFile);
+        Files.walkFileTree(stagedDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                stagedDirs.add(relativePath(stagedDir, dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                stagedFiles.put(relativePath(stagedDir, file), file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        deleteRemoved();
+
+        final ContentManifest.Builder manifest = ContentManifest.builder();
+        for(Map.Entry<String, Path> staged : stagedFiles.entrySet()) {
+            final String relativePath = staged.getKey();
+            final Path stagedFile = staged.getValue();
+            final Path target = installDir.resolve(relativePath);
+            final long stagedSize = Files.size(stagedFile);
+            final ContentManifest.Entry stagedEntry = stagedContent == null ? null : stagedContent.getEntry(relativePath);
+            final String stagedHash = stagedEntry != null && stagedEntry.matches(stagedFile) ? stagedEntry.getHash() : HashUtils.hashFile(stagedFile);
+            if(Files.isRegularFile(target)) {
+                final ContentManifest.Entry entry = installed.getEntry(relativePath);
+                final String installedHash;
+                if(entry != null && entry.matches(target)) {
+                    installedHash = entry.getSize() == stagedSize ? entry.getHash() : null;
+                } else {
+                    installedHash = Files.size(target) == stagedSize ? HashUtils.hashFile(target) : null;
+                }
+                if(stagedHash.equals(installedHash)) {
+                    manifest.addEntry(newEntry(relativePath, target, stagedHash));
+                    continue;
+                }
+            }
+            Files.createDirectories(target.getParent());
+            Files.copy(stagedFile, target, StandardCopyOption.REPLACE_EXISTING);
+            manifest.addEntry(newEntry(relativePath, target, stagedHash));
+            ++written;
+        }
+        for(String dir : stagedDirs) {
+            Files.createDirectories(installDir.resolve(dir));
+        }
+        manifest.build().write(manifestFile);
+        messageWriter.verbose("Updated the installation: %s file(s) written, %s file(s) deleted, %s file(s) unchanged",
+                written, deleted, stagedFiles.size() - written);
+    }
+
+    /**
+     * Deletes the installed files and directories that are not present in the staged installation.
+     */
+    private void deleteRemoved() throws IOException {
+        Files.walkFileTree(installDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if(!stagedFiles.containsKey(relativePath(installDir, file)) && !file.equals(manifestFile)) {
+                    Files.delete(file);
+                    ++deleted;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if(exc != null) {
+                    throw exc;
+                }
+                if(!stagedDirs.contains(relativePath(installDir, dir))) {
+                    Files.delete(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static ContentManifest.Entry newEntry(String relativePath, Path file, String hash) throws IOException {
+        return new ContentManifest.Entry(relativePath, Files.size(file), Files.getLastModifiedTime(file).toMillis(), hash);
+    }
+
+    private static String relativePath(Path root, Path path) {
+        final String relativePath = root.relativize(path).toString();
+        return File.separatorChar == '/' ? relativePath : relativePath.replace(File.separatorChar, '/');
+    }
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -29,6 +30,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 import javax.xml.stream.XMLStreamException;
@@ -45,10 +48,14 @@ import org.jboss.provisioning.config.ProvisioningConfig;
 import org.jboss.provisioning.diff.FileSystemDiffResult;
 import org.jboss.provisioning.repomanager.FeaturePackBuilder;
 import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.state.ContentManifest;
 import org.jboss.provisioning.state.FeaturePackSet;
 import org.jboss.provisioning.state.ProvisionedConfig;
+import org.jboss.provisioning.util.ContentMaterializer;
 import org.jboss.provisioning.util.FeaturePackInstallException;
+import org.jboss.provisioning.util.HashUtils;
 import org.jboss.provisioning.util.IoUtils;
+import org.jboss.provisioning.util.PathFilter;
 import org.jboss.provisioning.util.PathsUtils;
 import org.jboss.provisioning.util.PmCollections;
 import org.jboss.provisioning.xml.ProvisionedStateXmlWriter;
@@ -67,21 +74,18 @@ import org.jboss.provisioning.spec.FeaturePackSpec;
 public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>, java.io.Closeable {
 
     public static void install(ProvisioningRuntime runtime) throws ProvisioningException {
-        // copy package content
-        for(FeaturePackRuntime fp : runtime.fpRuntimes.values()) {
-            final ArtifactCoords.Gav fpGav = fp.getGav();
-            runtime.messageWriter.verbose("Installing %s", fpGav);
-            for(PackageRuntime pkg : fp.getPackages()) {
-                final Path pkgSrcDir = pkg.getContentDir();
-                if (Files.exists(pkgSrcDir)) {
-                    try {
-                        IoUtils.copy(pkgSrcDir, runtime.stagedDir);
-                    } catch (IOException e) {
-                        throw new FeaturePackInstallException(Errors.packageContentCopyFailed(pkg.getName()), e);
-                    }
-                }
+        if(!runtime.incremental) {
+            // the staged directory is going to replace the installation, so it is staged where it can be renamed
+            runtime.stagedDir = getStagedDir(runtime.workDir, runtime.installDir);
+            try {
+                Files.createDirectories(runtime.stagedDir);
+            } catch(IOException e) {
+                throw new ProvisioningException(Errors.mkdirs(runtime.stagedDir), e);
             }
         }
+        // copy package content recording its hashes, so that only the files written by the plug-ins have to be hashed
+        final ContentManifest.Builder packageContent = ContentManifest.builder();
+        copyPackageContent(runtime, runtime.stagedDir, packageContent);
 
         // execute the plug-ins
         runtime.executePlugins();
@@ -99,16 +103,114 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
         } catch (XMLStreamException | IOException e) {
             throw new FeaturePackInstallException(Errors.writeFile(PathsUtils.getProvisionedStateXml(runtime.stagedDir)), e);
         }
+        final ContentManifest stagedContent = packageContent.build();
+        if(runtime.incremental) {
+            runtime.messageWriter.verbose("Applying the changes from the staged directory to %s", runtime.installDir);
+            IncrementalInstaller.install(runtime.stagedDir, stagedContent, runtime.installDir, runtime.messageWriter);
+            return;
+        }
+        final Map<Path, String> hashes;
+        try {
+            hashes = HashUtils.hashTree(runtime.stagedDir, ContentManifest.getFilter(PathFilter.DEFAULT), stagedContent, ForkJoinPool.commonPool());
+        } catch (IOException e) {
+            throw new FeaturePackInstallException(Errors.hashCalculation(runtime.stagedDir), e);
+        }
         runtime.messageWriter.verbose("Moving the provisioned installation from the staged directory to %s", runtime.installDir);
-        // copy from the staged to the target installation directory
-        if (Files.exists(runtime.installDir)) {
-            IoUtils.recursiveDelete(runtime.installDir);
+        if(!moveStagedDir(runtime)) {
+            // copy from the staged to the target installation directory
+            if (Files.exists(runtime.installDir)) {
+                IoUtils.recursiveDelete(runtime.installDir);
+            }
+            try {
+                IoUtils.copy(runtime.stagedDir, runtime.installDir);
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.copyFile(runtime.stagedDir, runtime.installDir));
+            }
         }
+
+        // save the content manifest
+        final Path manifestFile = PathsUtils.getContentManifest(runtime.installDir);
         try {
-            IoUtils.copy(runtime.stagedDir, runtime.installDir);
+            ContentManifest.create(runtime.installDir, hashes).write(manifestFile);
         } catch (IOException e) {
-            throw new ProvisioningException(Errors.copyFile(runtime.stagedDir, runtime.installDir));
+            throw new FeaturePackInstallException(Errors.writeFile(manifestFile), e);
+        }
+    }
+
+    /**
+     * Replaces the installation directory with the staged one by renaming the directories.
+     * The existing installation is first renamed to a backup directory next to it,
+     * then the staged directory is renamed to the installation directory and the backup is deleted.
+     * If the staged directory could not be moved into place, the backup is renamed back.
+     *
+     * @param runtime  provisioning runtime
+     * @return  true if the staged directory has been moved, false if the installation
+     * has been left untouched and has to be replaced by copying the staged content
+     * @throws ProvisioningException  in case the original installation could not be restored
+     */
+    private static boolean moveStagedDir(ProvisioningRuntime runtime) throws ProvisioningException {
+        final Path installDir = runtime.installDir.toAbsolutePath();
+        final Path parentDir = installDir.getParent();
+        if(parentDir == null || Files.isSymbolicLink(installDir)) {
+            return false;
+        }
+        Path backupDir = null;
+        if(Files.exists(installDir)) {
+            backupDir = parentDir.resolve('.' + installDir.getFileName().toString() + '-' + UUID.randomUUID());
+            try {
+                Files.move(installDir, backupDir, StandardCopyOption.ATOMIC_MOVE);
+            } catch(IOException e) {
+                return false;
+            }
+        } else {
+            try {
+                Files.createDirectories(parentDir);
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.mkdirs(parentDir), e);
+            }
+        }
+        try {
+            Files.move(runtime.stagedDir, installDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            if(backupDir != null) {
+                try {
+                    Files.move(backupDir, installDir, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e1) {
+                    throw new ProvisioningException(Errors.moveFile(backupDir, installDir), e1);
+                }
+            }
+            return false;
+        }
+        if(backupDir != null) {
+            IoUtils.recursiveDelete(backupDir);
         }
+        return true;
+    }
+
+    /**
+     * Returns the directory in which the installation should be staged.
+     * The installation is staged in the work directory unless the work directory and
+     * the installation directory belong to different file stores, in which case
+     * the staged directory is created next to the installation directory, so that
+     * it can be renamed into the installation directory once provisioned.
+     * This is decided only when installing, the runtimes which do not replace
+     * the installation directory do not touch its parent directory.
+     */
+    private static Path getStagedDir(Path workDir, Path installDir) {
+        if(installDir != null) {
+            final Path parentDir = installDir.toAbsolutePath().getParent();
+            if(parentDir != null) {
+                try {
+                    Files.createDirectories(parentDir);
+                    if (!Files.getFileStore(parentDir).equals(Files.getFileStore(workDir))) {
+                        return Files.createTempDirectory(parentDir, '.' + installDir.getFileName().toString() + "-staged");
+                    }
+                } catch (IOException e) {
+                    // stage in the work directory and copy the content
+                }
+            }
+        }
+        return workDir.resolve("staged");
     }
 
     public static void exportToFeaturePack(ProvisioningRuntime runtime, Path location, Path installationHome) throws ProvisioningDescriptionException, ProvisioningException, IOException {
@@ -138,24 +240,64 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
         runtime.executeDiffPlugins(target, customizedInstallation);
     }
 
+    /**
+     * Materializes the content of the resolved packages in the installation directory
+     * without executing the plug-ins. The result is not a complete installation,
+     * it is meant to serve as the reference of the original package content
+     * when the changes of an installation are computed using its content manifest.
+     *
+     * @param runtime  provisioning runtime
+     * @throws ProvisioningException  in case of a failure
+     */
+    public static void installPackageContent(ProvisioningRuntime runtime) throws ProvisioningException {
+        copyPackageContent(runtime, runtime.installDir, null);
+    }
+
+    /**
+     * Materializes the content of the resolved packages in the target directory.
+     * If the manifest builder is not null, the materialized files are added to it
+     * with the hashes of their source files.
+     */
+    private static void copyPackageContent(ProvisioningRuntime runtime, Path target, ContentManifest.Builder manifest) throws ProvisioningException {
+        for(FeaturePackRuntime fp : runtime.fpRuntimes.values()) {
+            final ArtifactCoords.Gav fpGav = fp.getGav();
+            runtime.messageWriter.verbose("Installing %s", fpGav);
+            for(PackageRuntime pkg : fp.getPackages()) {
+                final Path pkgSrcDir = pkg.getContentDir();
+                if (Files.exists(pkgSrcDir)) {
+                    try {
+                        runtime.contentMaterializer.materialize(pkgSrcDir, target);
+                        if(manifest != null) {
+                            // the files of the following packages may replace these, so the entries are replaced as well
+                            for(Map.Entry<Path, String> hash : HashUtils.hashTree(pkgSrcDir, PathFilter.DEFAULT, ForkJoinPool.commonPool()).entrySet()) {
+                                final Path file = target.resolve(hash.getKey().toString());
+                                if(Files.isRegularFile(file)) {
+                                    manifest.addEntry(new ContentManifest.Entry(ContentManifest.toEntryPath(hash.getKey()),
+                                            Files.size(file), Files.getLastModifiedTime(file).toMillis(), hash.getValue()));
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new FeaturePackInstallException(Errors.packageContentCopyFailed(pkg.getName()), e);
+                    }
+                }
+            }
+        }
+    }
+
     public static void upgrade(ProvisioningRuntime runtime, Path customizedInstallation) throws ProvisioningException {
         // execute the plug-ins
         runtime.executeUpgradePlugins(customizedInstallation);
-         if (Files.exists(customizedInstallation)) {
-            IoUtils.recursiveDelete(customizedInstallation);
-        }
-        try {
-            IoUtils.copy(runtime.installDir, customizedInstallation);
-        } catch (IOException e) {
-            throw new ProvisioningException(Errors.copyFile(runtime.installDir, customizedInstallation));
-        }
+        // only the files that differ from the upgraded installation are written
+        runtime.messageWriter.verbose("Applying the changes from %s to %s", runtime.installDir, customizedInstallation);
+        IncrementalInstaller.install(runtime.installDir, null, customizedInstallation, runtime.messageWriter);
     }
 
     private final long startTime;
     private final ArtifactRepositoryManager artifactResolver;
     private ProvisioningConfig config;
     private Path installDir;
-    private final Path stagedDir;
+    private Path stagedDir;
     private final Path workDir;
     private final Path tmpDir;
     private final Path pluginsDir;
@@ -166,6 +308,9 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
     private FileSystemDiffResult diff = FileSystemDiffResult.empty();
     private ClassLoader pluginsClassLoader;
     private final String operation;
+    private final List<java.io.Closeable> fpSrcHandles;
+    private final boolean incremental;
+    private final ContentMaterializer contentMaterializer;
 
     ProvisioningRuntime(ProvisioningRuntimeBuilder builder, final MessageWriter messageWriter) throws ProvisioningException {
         this.startTime = builder.startTime;
@@ -174,6 +319,9 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
         this.pluginsDir = builder.pluginsDir;
         this.fpRuntimes = builder.fpRuntimes;
         this.operation = builder.operation;
+        this.fpSrcHandles = builder.fpSrcHandles;
+        this.incremental = builder.incremental;
+        this.contentMaterializer = builder.contentMaterializer;
 
         if(!builder.anonymousConfigs.isEmpty()) {
             for(ProvisionedConfig config : builder.anonymousConfigs) {
@@ -264,6 +412,16 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
         return stagedDir;
     }
 
+    /**
+     * The strategy of materializing the unpacked feature-pack content
+     * in the staged directory.
+     *
+     * @return  content materialization strategy
+     */
+    public ContentMaterializer getContentMaterializer() {
+        return contentMaterializer;
+    }
+
     /**
      * The target installation location
      *
@@ -451,7 +609,11 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
 
     @Override
     public void close() throws IOException {
+        ProvisioningRuntimeBuilder.closeFpSources(fpSrcHandles, messageWriter);
         IoUtils.recursiveDelete(workDir);
+        if(!stagedDir.startsWith(workDir)) {
+            IoUtils.recursiveDelete(stagedDir);
+        }
         if (messageWriter.isVerboseEnabled()) {
             final long time = System.currentTimeMillis() - startTime;
             final long seconds = time / 1000;
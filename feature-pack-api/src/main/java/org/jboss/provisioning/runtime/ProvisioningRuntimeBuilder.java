@@ -18,6 +18,7 @@
 package org.jboss.provisioning.runtime;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -31,6 +32,14 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -49,6 +58,7 @@ import org.jboss.provisioning.config.FeaturePackConfig;
 import org.jboss.provisioning.config.IncludedConfig;
 import org.jboss.provisioning.config.PackageConfig;
 import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.layout.FeaturePackLayoutCache;
 import org.jboss.provisioning.spec.ConfigId;
 import org.jboss.provisioning.spec.ConfigSpec;
 import org.jboss.provisioning.spec.FeatureDependencySpec;
@@ -62,10 +72,12 @@ import org.jboss.provisioning.spec.FeatureReferenceSpec;
 import org.jboss.provisioning.spec.PackageDepsSpec;
 import org.jboss.provisioning.spec.PackageDependencySpec;
 import org.jboss.provisioning.spec.SpecId;
+import org.jboss.provisioning.state.ProvisionedConfig;
+import org.jboss.provisioning.util.ContentMaterializer;
 import org.jboss.provisioning.util.IoUtils;
 import org.jboss.provisioning.util.LayoutUtils;
 import org.jboss.provisioning.util.PmCollections;
-import org.jboss.provisioning.util.ZipUtils;
+import org.jboss.provisioning.util.ZipArchive;
 import org.jboss.provisioning.xml.FeaturePackXmlParser;
 import org.jboss.provisioning.xml.PackageXmlParser;
 import org.jboss.provisioning.ArtifactRepositoryManager;
@@ -132,6 +144,16 @@ public class ProvisioningRuntimeBuilder {
     Path pluginsDir = null;
 
     private final Map<ArtifactCoords.Ga, FeaturePackRuntime.Builder> fpRtBuilders = new HashMap<>();
+    List<Closeable> fpSrcHandles = Collections.emptyList();
+    private Map<ArtifactCoords.Gav, FeaturePackRuntime.Builder> prefetchedFps = Collections.emptyMap();
+    /** serializes the calls to the artifact resolver, which isn't required to be thread-safe */
+    private final Object resolverLock = new Object();
+    private int fpLoadThreads = Runtime.getRuntime().availableProcessors();
+    private int configBuildThreads = Runtime.getRuntime().availableProcessors();
+    private FeaturePackLayoutCache layoutCache;
+    private SpecCache specCache;
+    boolean incremental;
+    ContentMaterializer contentMaterializer;
     private final MessageWriter messageWriter;
     private List<FeaturePackRuntime.Builder> fpRtBuildersOrdered = new ArrayList<>();
     List<ConfigModelBuilder> anonymousConfigs = Collections.emptyList();
@@ -183,53 +205,150 @@ public class ProvisioningRuntimeBuilder {
         return this;
     }
 
-    public ProvisioningRuntime build() throws ProvisioningException {
+    /**
+     * Sets the cache of unpacked feature-pack layouts. If the cache is set,
+     * the feature-pack layouts are mounted from the cache instead of being read
+     * from the feature-pack artifacts.
+     *
+     * @param layoutCache  feature-pack layout cache or null to disable caching
+     * @return  this builder
+     */
+    public ProvisioningRuntimeBuilder setLayoutCache(FeaturePackLayoutCache layoutCache) {
+        this.layoutCache = layoutCache;
+        return this;
+    }
 
-        final Collection<FeaturePackConfig> fpConfigs = config.getFeaturePacks();
-        for (FeaturePackConfig fpConfig : fpConfigs) {
-            loadFpBuilder(fpConfig.getGav()).push(fpConfig);
-        }
-        for (FeaturePackConfig fpConfig : fpConfigs) {
-            processFpConfig(fpConfig);
-        }
-        buildConfigs();
+    /**
+     * Sets the cache of parsed specs which may be shared by the runtimes
+     * created in the same process.
+     *
+     * @param specCache  parsed spec cache or null to disable caching
+     * @return  this builder
+     */
+    public ProvisioningRuntimeBuilder setSpecCache(SpecCache specCache) {
+        this.specCache = specCache;
+        return this;
+    }
+
+    /**
+     * Enables the incremental installation. If enabled, only the files of the target
+     * directory that differ from the newly provisioned content are written or deleted
+     * instead of replacing the whole installation. The content manifest recorded
+     * in the installation allows to skip reading the unmodified installed files.
+     *
+     * @param incremental  whether the installation should be updated incrementally
+     * @return  this builder
+     */
+    public ProvisioningRuntimeBuilder setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    /**
+     * Sets the strategy of materializing the unpacked package content and resources.
+     * Unless set explicitly, the content is hard linked or, if a layout cache is used,
+     * copied, since the cached layouts must not be affected by the changes applied
+     * to the provisioned files. For the same reason, {@link ContentMaterializer#HARDLINK}
+     * is rejected by {@link #build()} when a layout cache is set.
+     *
+     * @param contentMaterializer  content materialization strategy
+     * @return  this builder
+     */
+    public ProvisioningRuntimeBuilder setContentMaterializer(ContentMaterializer contentMaterializer) {
+        this.contentMaterializer = contentMaterializer;
+        return this;
+    }
 
-        switch(fpRtBuildersOrdered.size()) {
-            case 0: {
-                fpRuntimes = Collections.emptyMap();
-                break;
+    /**
+     * Sets the maximum number of threads used to load the feature-pack
+     * dependency graph. The value of 1 disables the concurrent loading.
+     * The artifact resolver is not required to be thread-safe, it is called
+     * by one thread at a time.
+     *
+     * @param threads  maximum number of feature-pack loading threads
+     * @return  this builder
+     */
+    public ProvisioningRuntimeBuilder setFeaturePackLoadThreads(int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+        }
+        this.fpLoadThreads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of threads used to build the config models.
+     * The value of 1 disables the concurrent building.
+     *
+     * @param threads  maximum number of config building threads
+     * @return  this builder
+     */
+    public ProvisioningRuntimeBuilder setConfigBuildThreads(int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+        }
+        this.configBuildThreads = threads;
+        return this;
+    }
+
+    public ProvisioningRuntime build() throws ProvisioningException {
+        if(contentMaterializer == null) {
+            contentMaterializer = layoutCache == null ? ContentMaterializer.HARDLINK : ContentMaterializer.COPY;
+        } else if(contentMaterializer == ContentMaterializer.HARDLINK && layoutCache != null) {
+            throw new ProvisioningException(Errors.hardLinksToLayoutCache());
+        }
+        try {
+            final Collection<FeaturePackConfig> fpConfigs = config.getFeaturePacks();
+            if(fpLoadThreads > 1) {
+                prefetchFpBuilders(fpConfigs);
+            }
+            for (FeaturePackConfig fpConfig : fpConfigs) {
+                loadFpBuilder(fpConfig.getGav()).push(fpConfig);
             }
-            case 1: {
-                final FeaturePackRuntime.Builder builder = fpRtBuildersOrdered.get(0);
-                copyResources(builder);
-                fpRuntimes = Collections.singletonMap(builder.gav, builder.build());
-                break;
+            for (FeaturePackConfig fpConfig : fpConfigs) {
+                processFpConfig(fpConfig);
             }
-            default: {
-                fpRuntimes = new LinkedHashMap<>(fpRtBuildersOrdered.size());
-                for(FeaturePackRuntime.Builder builder : fpRtBuildersOrdered) {
+            buildConfigs();
+
+            switch(fpRtBuildersOrdered.size()) {
+                case 0: {
+                    fpRuntimes = Collections.emptyMap();
+                    break;
+                }
+                case 1: {
+                    final FeaturePackRuntime.Builder builder = fpRtBuildersOrdered.get(0);
                     copyResources(builder);
-                    fpRuntimes.put(builder.gav, builder.build());
+                    fpRuntimes = Collections.singletonMap(builder.gav, builder.build());
+                    break;
+                }
+                default: {
+                    fpRuntimes = new LinkedHashMap<>(fpRtBuildersOrdered.size());
+                    for(FeaturePackRuntime.Builder builder : fpRtBuildersOrdered) {
+                        copyResources(builder);
+                        fpRuntimes.put(builder.gav, builder.build());
+                    }
+                    fpRuntimes = Collections.unmodifiableMap(fpRuntimes);
                 }
-                fpRuntimes = Collections.unmodifiableMap(fpRuntimes);
             }
-        }
 
-        return new ProvisioningRuntime(this, messageWriter);
+            return new ProvisioningRuntime(this, messageWriter);
+        } catch(ProvisioningException | RuntimeException e) {
+            closeFpSources(fpSrcHandles, messageWriter);
+            throw e;
+        }
     }
 
-    private void buildConfigs() throws ProvisioningException {
-        if(!anonymousConfigs.isEmpty()) {
-            for(ConfigModelBuilder config : anonymousConfigs) {
-                config.build(this);
-            }
-        }
-        if(!nameOnlyConfigs.isEmpty()) {
-            for(Map.Entry<String, ConfigModelBuilder> entry : nameOnlyConfigs.entrySet()) {
-                entry.getValue().build(this);
+    static void closeFpSources(List<Closeable> fpSrcHandles, MessageWriter messageWriter) {
+        for(Closeable handle : fpSrcHandles) {
+            try {
+                handle.close();
+            } catch (IOException e) {
+                messageWriter.error(e, "Failed to close %s", handle);
             }
         }
+    }
 
+    private void buildConfigs() throws ProvisioningException {
         if(!modelOnlyConfigSpecs.isEmpty()) {
             for(int i = 0; i < modelOnlyConfigSpecs.size(); ++i) {
                 final ConfigSpec modelOnlySpec = modelOnlyConfigSpecs.get(i);
@@ -270,10 +389,47 @@ public class ProvisioningRuntimeBuilder {
             modelOnlyConfigs = Collections.emptyMap();
         }
 
+        // once the model-only configs are merged the configs are independent from each other
+        final List<ConfigModelBuilder> configs = new ArrayList<>(anonymousConfigs);
+        configs.addAll(nameOnlyConfigs.values());
         for(Map<String, ConfigModelBuilder> configMap : namedModelConfigs.values()) {
-            for(Map.Entry<String, ConfigModelBuilder> configEntry : configMap.entrySet()) {
-                configEntry.getValue().build(this);
+            configs.addAll(configMap.values());
+        }
+        if(configs.size() < 2 || configBuildThreads == 1) {
+            for(ConfigModelBuilder config : configs) {
+                config.build(this);
             }
+            return;
+        }
+        final ForkJoinPool pool = new ForkJoinPool(Math.min(configBuildThreads, configs.size()));
+        try {
+            final List<ForkJoinTask<ProvisionedConfig>> tasks = new ArrayList<>(configs.size());
+            for(ConfigModelBuilder config : configs) {
+                tasks.add(pool.submit(() -> config.build(this)));
+            }
+            // the failures are reported in the order of the configs
+            for(ForkJoinTask<ProvisionedConfig> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if(cause instanceof ProvisioningException) {
+                        throw (ProvisioningException) cause;
+                    }
+                    if(cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if(cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new ProvisioningException(cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProvisioningException("Interrupted while building configs", e);
+        } finally {
+            pool.shutdownNow();
         }
     }
 
@@ -486,6 +642,20 @@ public class ProvisioningRuntimeBuilder {
     }
 
     private ResolvedFeatureGroupConfig resolveFeatureGroupConfig(FeaturePackRuntime.Builder fp, FeatureGroupConfigSupport fg) throws ProvisioningException {
+        if(parentFeature != null) {
+            // the included and excluded features depend on the foreign key of the parent
+            return doResolveFeatureGroupConfig(fp, fg);
+        }
+        // the groups are included by many configs, the resolved config is not modified once pushed
+        ResolvedFeatureGroupConfig resolvedFgc = fp.getResolvedFeatureGroupConfig(fg);
+        if(resolvedFgc == null) {
+            resolvedFgc = doResolveFeatureGroupConfig(fp, fg);
+            fp.addResolvedFeatureGroupConfig(fg, resolvedFgc);
+        }
+        return resolvedFgc;
+    }
+
+    private ResolvedFeatureGroupConfig doResolveFeatureGroupConfig(FeaturePackRuntime.Builder fp, FeatureGroupConfigSupport fg) throws ProvisioningException {
         final ResolvedFeatureGroupConfig resolvedFgc = new ResolvedFeatureGroupConfig(fg.getName());
         resolvedFgc.inheritFeatures = fg.isInheritFeatures();
         if(fg.hasExcludedSpecs()) {
@@ -553,17 +723,17 @@ public class ProvisioningRuntimeBuilder {
     }
 
     ResolvedFeatureId resolveFeatureId(FeaturePackRuntime.Builder fp, final FeatureId featureId) {
-        return new ResolvedFeatureId(new ResolvedSpecId(fp.gav, featureId.getSpec().getName()), featureId.getParams());
+        return new ResolvedFeatureId(fp.getSpecId(featureId.getSpec().getName()), featureId.getParams());
     }
 
     private Set<ResolvedSpecId> resolveSpecIds(FeaturePackRuntime.Builder fp, Set<SpecId> specs) throws ProvisioningException {
         if(specs.size() == 1) {
             final SpecId specId = specs.iterator().next();
-            return Collections.singleton(new ResolvedSpecId(fp.gav, specId.getName()));
+            return Collections.singleton(fp.getSpecId(specId.getName()));
         }
         final Set<ResolvedSpecId> tmp = new HashSet<>(specs.size());
         for (SpecId specId : specs) {
-            tmp.add(new ResolvedSpecId(fp.gav, specId.getName()));
+            tmp.add(fp.getSpecId(specId.getName()));
         }
         return tmp;
     }
@@ -583,8 +753,10 @@ public class ProvisioningRuntimeBuilder {
                         resolvedFeatures |= processFeatureGroupConfig(modelBuilder, itemFp, nestedFg,
                                 itemFp.getFeatureGroupSpec(nestedFg.getName()));
                     } else {
-                        final FeatureConfig fc = (FeatureConfig) item;
+                        FeatureConfig fc = (FeatureConfig) item;
                         if (parentFeature != null) {
+                            // the container may be shared, the foreign key is initialized on a copy
+                            fc = new FeatureConfig(fc);
                             initForeignKey(parentFeature, fc, itemFp.getFeatureSpec(fc.getSpecId().getName()));
                         }
                         resolvedFeatures |= resolveFeature(modelBuilder, itemFp, fc);
@@ -834,31 +1006,131 @@ public class ProvisioningRuntimeBuilder {
     private FeaturePackRuntime.Builder loadFpBuilder(ArtifactCoords.Gav gav) throws ProvisioningException {
         FeaturePackRuntime.Builder fp = fpRtBuilders.get(gav.toGa());
         if(fp == null) {
-            final Path fpDir = LayoutUtils.getFeaturePackDir(layoutDir, gav, false);
-            mkdirs(fpDir);
+            fp = prefetchedFps.remove(gav);
+            if(fp == null) {
+                fp = openFpBuilder(gav);
+                fpSrcHandles = PmCollections.add(fpSrcHandles, fp.srcHandle);
+            }
+            mkdirs(fp.dir);
+            fpRtBuilders.put(gav.toGa(), fp);
+        } else if(!fp.gav.equals(gav)) {
+            throw new ProvisioningException(Errors.featurePackVersionConflict(fp.gav, gav));
+        }
+        return fp;
+    }
 
-            final Path artifactPath = artifactResolver.resolve(gav.toArtifactCoords());
+    /**
+     * Resolves the feature-pack artifact and creates a builder for it.
+     * This method does not modify the state of this builder and is safe to call concurrently.
+     * The artifacts are resolved one at a time, the archives are opened and parsed concurrently.
+     */
+    private FeaturePackRuntime.Builder openFpBuilder(ArtifactCoords.Gav gav) throws ProvisioningException {
+        final Path artifactPath;
+        synchronized(resolverLock) {
+            artifactPath = artifactResolver.resolve(gav.toArtifactCoords());
+        }
+        final Path fpSrc;
+        final Path fpDir;
+        final Closeable srcHandle;
+        final ZipArchive archive;
+        if(layoutCache != null) {
+            // the cached layout is used as is, nothing is extracted
+            final FeaturePackLayoutCache.Mount mount = layoutCache.mount(gav, artifactPath);
+            fpSrc = mount.getLayoutDir();
+            fpDir = fpSrc;
+            srcHandle = mount;
+            archive = null;
+        } else {
+            // the metadata is read directly from the archive, only the content of the resolved packages is extracted
+            ZipArchive zip = null;
             try {
-                ZipUtils.unzip(artifactPath, fpDir);
+                zip = ZipArchive.open(artifactPath);
+                fpSrc = zip.getRoot();
             } catch (IOException e) {
-                throw new ProvisioningException("Failed to unzip " + artifactPath + " to " + layoutDir, e);
+                if(zip != null) {
+                    try {
+                        zip.close();
+                    } catch (IOException e1) {
+                    }
+                }
+                throw new ProvisioningException(Errors.openFile(artifactPath), e);
             }
-
-            final Path fpXml = fpDir.resolve(Constants.FEATURE_PACK_XML);
+            fpDir = LayoutUtils.getFeaturePackDir(layoutDir, gav, false);
+            srcHandle = zip;
+            archive = zip;
+        }
+        try {
+            final Path fpXml = fpSrc.resolve(Constants.FEATURE_PACK_XML);
             if(!Files.exists(fpXml)) {
                 throw new ProvisioningDescriptionException(Errors.pathDoesNotExist(fpXml));
             }
-
             try(BufferedReader reader = Files.newBufferedReader(fpXml)) {
-                fp = FeaturePackRuntime.builder(gav, FeaturePackXmlParser.getInstance().parse(reader), fpDir);
+                final FeaturePackRuntime.Builder fp = FeaturePackRuntime.builder(gav, FeaturePackXmlParser.getInstance().parse(reader), fpSrc, fpDir, srcHandle, archive);
+                fp.specCache = specCache;
+                return fp;
             } catch (IOException | XMLStreamException e) {
                 throw new ProvisioningException(Errors.parseXml(fpXml), e);
             }
-            fpRtBuilders.put(gav.toGa(), fp);
-        } else if(!fp.gav.equals(gav)) {
-            throw new ProvisioningException(Errors.featurePackVersionConflict(fp.gav, gav));
+        } catch(ProvisioningException | RuntimeException e) {
+            try {
+                srcHandle.close();
+            } catch (IOException e1) {
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Discovers the transitive closure of the feature-packs referenced from the provisioning config
+     * and opens them concurrently. The loaded builders are then picked up by
+     * {@link #loadFpBuilder(ArtifactCoords.Gav)} during the (sequential) depth-first resolution.
+     * Failures are only logged here, the feature-packs that failed to load will simply be loaded
+     * again and fail at the point they would have failed without the prefetching.
+     */
+    private void prefetchFpBuilders(Collection<FeaturePackConfig> fpConfigs) throws ProvisioningException {
+        final ExecutorService executor = Executors.newFixedThreadPool(fpLoadThreads, r -> {
+            final Thread t = new Thread(r, "pm-fp-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            final CompletionService<FeaturePackRuntime.Builder> loader = new ExecutorCompletionService<>(executor);
+            final Map<Future<FeaturePackRuntime.Builder>, ArtifactCoords.Gav> submitted = new HashMap<>();
+            final Set<ArtifactCoords.Gav> submittedGavs = new HashSet<>();
+            for(FeaturePackConfig fpConfig : fpConfigs) {
+                final ArtifactCoords.Gav gav = fpConfig.getGav();
+                if(submittedGavs.add(gav)) {
+                    submitted.put(loader.submit(() -> openFpBuilder(gav)), gav);
+                }
+            }
+            prefetchedFps = new HashMap<>(submitted.size());
+            while(!submitted.isEmpty()) {
+                final Future<FeaturePackRuntime.Builder> loaded = loader.take();
+                final ArtifactCoords.Gav gav = submitted.remove(loaded);
+                final FeaturePackRuntime.Builder fp;
+                try {
+                    fp = loaded.get();
+                } catch (ExecutionException e) {
+                    messageWriter.verbose(e.getCause(), "Failed to prefetch feature-pack %s", gav);
+                    continue;
+                }
+                fpSrcHandles = PmCollections.add(fpSrcHandles, fp.srcHandle);
+                prefetchedFps.put(fp.gav, fp);
+                if(fp.spec.hasDependencies()) {
+                    for(FeaturePackDependencySpec fpDep : fp.spec.getDependencies()) {
+                        final ArtifactCoords.Gav depGav = fpDep.getTarget().getGav();
+                        if(submittedGavs.add(depGav)) {
+                            submitted.put(loader.submit(() -> openFpBuilder(depGav)), depGav);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProvisioningException("Interrupted while loading feature-packs", e);
+        } finally {
+            executor.shutdownNow();
         }
-        return fp;
     }
 
     private void resolvePackage(FeaturePackRuntime.Builder fp, final String pkgName)
@@ -869,17 +1141,34 @@ public class ProvisioningRuntimeBuilder {
         }
 
         final PackageRuntime.Builder pkg = fp.newPackage(pkgName, LayoutUtils.getPackageDir(fp.dir, pkgName, false));
-        if(!Files.exists(pkg.dir)) {
-            throw new ProvisioningDescriptionException(Errors.packageNotFound(fp.gav, pkgName));
-        }
-        final Path pkgXml = pkg.dir.resolve(Constants.PACKAGE_XML);
-        if(!Files.exists(pkgXml)) {
-            throw new ProvisioningDescriptionException(Errors.pathDoesNotExist(pkgXml));
+        final Path pkgSrc = LayoutUtils.getPackageDir(fp.src, pkgName, false);
+        pkg.spec = specCache == null ? null : specCache.getPackageSpec(fp.gav, pkgName);
+        if(pkg.spec == null) {
+            final Path pkgXml = pkgSrc.resolve(Constants.PACKAGE_XML);
+            final BufferedReader indexed = fp.specIndex == null ? null : fp.specIndex.openPackage(pkgName);
+            if(indexed == null) {
+                if(!Files.exists(pkgSrc)) {
+                    throw new ProvisioningDescriptionException(Errors.packageNotFound(fp.gav, pkgName));
+                }
+                if(!Files.exists(pkgXml)) {
+                    throw new ProvisioningDescriptionException(Errors.pathDoesNotExist(pkgXml));
+                }
+            }
+            try(BufferedReader reader = indexed == null ? Files.newBufferedReader(pkgXml) : indexed) {
+                pkg.spec = PackageXmlParser.getInstance().parse(reader);
+            } catch (IOException | XMLStreamException e) {
+                throw new ProvisioningException(Errors.parseXml(pkgXml), e);
+            }
+            if(specCache != null) {
+                specCache.putPackageSpec(fp.gav, pkg.spec);
+            }
         }
-        try(BufferedReader reader = Files.newBufferedReader(pkgXml)) {
-            pkg.spec = PackageXmlParser.getInstance().parse(reader);
-        } catch (IOException | XMLStreamException e) {
-            throw new ProvisioningException(Errors.parseXml(pkgXml), e);
+        if(fp.archive != null) {
+            try {
+                fp.archive.extract(Constants.PACKAGES + '/' + pkgName + '/', pkg.dir);
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.copyFile(pkgSrc, pkg.dir), e);
+            }
         }
 
         if(pkg.spec.hasPackageDeps()) {
@@ -961,22 +1250,34 @@ public class ProvisioningRuntimeBuilder {
 
     private void copyResources(FeaturePackRuntime.Builder fpRtBuilder) throws ProvisioningException {
         // resources should be copied last overriding the dependency resources
-        final Path fpResources = fpRtBuilder.dir.resolve(Constants.RESOURCES);
-        if(Files.exists(fpResources)) {
+        final Path fpResourcesSrc = fpRtBuilder.src.resolve(Constants.RESOURCES);
+        if(Files.exists(fpResourcesSrc)) {
+            final Path fpResources = fpRtBuilder.dir.resolve(Constants.RESOURCES);
+            if(fpRtBuilder.archive != null) {
+                try {
+                    fpRtBuilder.archive.extract(Constants.RESOURCES + '/', fpResources);
+                } catch (IOException e) {
+                    throw new ProvisioningException(Errors.copyFile(fpResourcesSrc, fpResources), e);
+                }
+            }
             try {
-                IoUtils.copy(fpResources, workDir.resolve(Constants.RESOURCES));
+                contentMaterializer.materialize(fpResources, workDir.resolve(Constants.RESOURCES));
             } catch (IOException e) {
                 throw new ProvisioningException(Errors.copyFile(fpResources, workDir.resolve(Constants.RESOURCES)), e);
             }
         }
 
-        final Path fpPlugins = fpRtBuilder.dir.resolve(Constants.PLUGINS);
+        final Path fpPlugins = fpRtBuilder.src.resolve(Constants.PLUGINS);
         if(Files.exists(fpPlugins)) {
             if(pluginsDir == null) {
                 pluginsDir = workDir.resolve(Constants.PLUGINS);
             }
             try {
-                IoUtils.copy(fpPlugins, pluginsDir);
+                if(fpRtBuilder.archive != null) {
+                    fpRtBuilder.archive.extract(Constants.PLUGINS + '/', pluginsDir);
+                } else {
+                    IoUtils.copy(fpPlugins, pluginsDir);
+                }
             } catch (IOException e) {
                 throw new ProvisioningException(Errors.copyFile(fpPlugins, workDir.resolve(Constants.PLUGINS)), e);
             }
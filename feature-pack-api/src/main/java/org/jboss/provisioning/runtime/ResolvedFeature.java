@@ -149,7 +149,6 @@ public class ResolvedFeature extends CapabilityProvider implements ProvisionedFe
         }
         orderingState = ORDERED;
         provided();
-        spec.provided();
     }
 
     void free() {
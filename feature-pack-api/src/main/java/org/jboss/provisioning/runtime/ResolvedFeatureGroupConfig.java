@@ -18,6 +18,7 @@
 package org.jboss.provisioning.runtime;
 
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -35,6 +36,9 @@ public class ResolvedFeatureGroupConfig {
     Map<ResolvedFeatureId, FeatureConfig> includedFeatures = Collections.emptyMap();
     Set<ResolvedSpecId> excludedSpecs = Collections.emptySet();
     Set<ResolvedFeatureId> excludedFeatures = Collections.emptySet();
+    // specs of the included and excluded features, initialized on demand
+    private Set<ResolvedSpecId> includedFeatureSpecs;
+    private Set<ResolvedSpecId> excludedFeatureSpecs;
 
     ResolvedFeatureGroupConfig(String name) {
         this.name = name;
@@ -53,6 +57,34 @@ public class ResolvedFeatureGroupConfig {
         return !excludedFeatures.isEmpty();
     }
 
+    boolean includesFeaturesOf(ResolvedSpecId specId) {
+        if(includedFeatureSpecs == null) {
+            includedFeatureSpecs = getSpecs(includedFeatures.keySet());
+        }
+        return includedFeatureSpecs.contains(specId);
+    }
+
+    boolean excludesFeaturesOf(ResolvedSpecId specId) {
+        if(excludedFeatureSpecs == null) {
+            excludedFeatureSpecs = getSpecs(excludedFeatures);
+        }
+        return excludedFeatureSpecs.contains(specId);
+    }
+
+    private static Set<ResolvedSpecId> getSpecs(Set<ResolvedFeatureId> ids) {
+        if(ids.isEmpty()) {
+            return Collections.emptySet();
+        }
+        if(ids.size() == 1) {
+            return Collections.singleton(ids.iterator().next().specId);
+        }
+        final Set<ResolvedSpecId> specs = new HashSet<>();
+        for(ResolvedFeatureId id : ids) {
+            specs.add(id.specId);
+        }
+        return specs;
+    }
+
     boolean isSubsetOf(ResolvedFeatureGroupConfig other) {
         if(!this.name.equals(other.name)) {
             throw new IllegalArgumentException("Can't compare group " + this.name + " to " + other.name);
@@ -50,7 +50,8 @@ public class ResolvedFeatureId {
             if(params.isEmpty()) {
                 throw new ProvisioningDescriptionException("ResolvedFeatureId must have params");
             }
-            return new ResolvedFeatureId(specId, params);
+            // the map is snapshot since it would be modified in place by the following setParam() calls
+            return new ResolvedFeatureId(specId, params.size() > 1 ? new HashMap<>(params) : params);
         }
     }
 
@@ -146,19 +147,30 @@ public class ResolvedFeatureId {
 
     final ResolvedSpecId specId;
     final Map<String, String> params;
+    /** the ids are looked up in maps and compared many times while a config is being built */
+    private final int hash;
 
     ResolvedFeatureId(ResolvedSpecId specId, Map<String, String> params) {
         this.specId = specId;
+        this.params = PmCollections.unmodifiable(filterUndefined(params));
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((this.params == null) ? 0 : this.params.hashCode());
+        result = prime * result + ((specId == null) ? 0 : specId.hashCode());
+        this.hash = result;
+    }
+
+    private static Map<String, String> filterUndefined(Map<String, String> params) {
+        if(!params.containsValue(Constants.PM_UNDEFINED)) {
+            return params;
+        }
         Map<String, String> filtered = Collections.emptyMap();
         for(Map.Entry<String, String> entry : params.entrySet()) {
             if(!Constants.PM_UNDEFINED.equals(entry.getValue())) {
                 filtered = PmCollections.put(filtered, entry.getKey(), entry.getValue());
             }
         }
-        if(filtered.isEmpty()) {
-            filtered = params;
-        }
-        this.params = PmCollections.unmodifiable(filtered);
+        return filtered.isEmpty() ? params : filtered;
     }
 
     public ResolvedSpecId getSpecId() {
@@ -171,11 +183,7 @@ public class ResolvedFeatureId {
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((params == null) ? 0 : params.hashCode());
-        result = prime * result + ((specId == null) ? 0 : specId.hashCode());
-        return result;
+        return hash;
     }
 
     @Override
@@ -187,6 +195,8 @@ public class ResolvedFeatureId {
         if (getClass() != obj.getClass())
             return false;
         ResolvedFeatureId other = (ResolvedFeatureId) obj;
+        if (hash != other.hash)
+            return false;
         if (params == null) {
             if (other.params != null)
                 return false;
@@ -42,11 +42,11 @@ import org.jboss.provisioning.spec.FeatureSpec;
  *
  * @author Alexey Loubyansky
  */
-public class ResolvedFeatureSpec extends CapabilityProvider {
+public class ResolvedFeatureSpec {
 
     final ResolvedSpecId id;
     final FeatureSpec xmlSpec;
-    private Map<String, ResolvedFeatureSpec> resolvedRefTargets;
+    private volatile Map<String, ResolvedFeatureSpec> resolvedRefTargets;
     private Map<ResolvedFeatureId, FeatureDependencySpec> resolvedDeps;
 
     public ResolvedFeatureSpec(ResolvedSpecId specId, FeatureSpec spec) {
@@ -78,24 +78,38 @@ public class ResolvedFeatureSpec extends CapabilityProvider {
         return resolvedDeps;
     }
 
+    /**
+     * Resolves the feature specs targeted by the references of this spec.
+     * The spec is shared by the configs which may be built concurrently,
+     * the mappings are resolved once holding the lock on the runtime builder
+     * since the feature-pack builders are not thread-safe.
+     */
     void resolveRefMappings(ProvisioningRuntimeBuilder rt) throws ProvisioningDescriptionException {
+        if(resolvedRefTargets != null) {
+            return;
+        }
         if(!xmlSpec.hasFeatureRefs()) {
             resolvedRefTargets = Collections.emptyMap();
             return;
         }
-        final FeaturePackRuntime.Builder ownFp = rt.getFpBuilder(id.gav);
+        synchronized(rt) {
+            if(resolvedRefTargets != null) {
+                return;
+            }
+            final FeaturePackRuntime.Builder ownFp = rt.getFpBuilder(id.gav);
 
-        Collection<FeatureReferenceSpec> refs = xmlSpec.getFeatureRefs();
-        if (refs.size() == 1) {
-            resolvedRefTargets = Collections.singletonMap(refs.iterator().next().getName(), resolveRefMapping(rt, ownFp, refs.iterator().next()));
-            return;
-        }
+            Collection<FeatureReferenceSpec> refs = xmlSpec.getFeatureRefs();
+            if (refs.size() == 1) {
+                resolvedRefTargets = Collections.singletonMap(refs.iterator().next().getName(), resolveRefMapping(rt, ownFp, refs.iterator().next()));
+                return;
+            }
 
-        final Map<String, ResolvedFeatureSpec> tmp = new HashMap<>(refs.size());
-        for (FeatureReferenceSpec refSpec : refs) {
-            tmp.put(refSpec.getName(), resolveRefMapping(rt, ownFp, refSpec));
+            final Map<String, ResolvedFeatureSpec> tmp = new HashMap<>(refs.size());
+            for (FeatureReferenceSpec refSpec : refs) {
+                tmp.put(refSpec.getName(), resolveRefMapping(rt, ownFp, refSpec));
+            }
+            this.resolvedRefTargets = Collections.unmodifiableMap(tmp);
         }
-        this.resolvedRefTargets = Collections.unmodifiableMap(tmp);
     }
 
     private ResolvedFeatureSpec resolveRefMapping(ProvisioningRuntimeBuilder rt, final FeaturePackRuntime.Builder ownFp,
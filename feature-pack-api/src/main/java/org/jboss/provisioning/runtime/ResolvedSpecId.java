@@ -25,10 +25,16 @@ import org.jboss.provisioning.ArtifactCoords;
 public class ResolvedSpecId {
     final ArtifactCoords.Gav gav;
     final String name;
+    private final int hash;
 
     public ResolvedSpecId(ArtifactCoords.Gav gav, String name) {
         this.gav = gav;
         this.name = name;
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((gav == null) ? 0 : gav.hashCode());
+        result = prime * result + ((name == null) ? 0 : name.hashCode());
+        this.hash = result;
     }
 
     public ArtifactCoords.Gav getGav() {
@@ -41,11 +47,7 @@ public class ResolvedSpecId {
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((gav == null) ? 0 : gav.hashCode());
-        result = prime * result + ((name == null) ? 0 : name.hashCode());
-        return result;
+        return hash;
     }
 
     @Override
@@ -57,6 +59,8 @@ public class ResolvedSpecId {
         if (getClass() != obj.getClass())
             return false;
         ResolvedSpecId other = (ResolvedSpecId) obj;
+        if (hash != other.hash)
+            return false;
         if (gav == null) {
             if (other.gav != null)
                 return false;
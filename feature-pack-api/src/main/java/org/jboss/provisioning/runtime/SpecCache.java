@@ -0,0 +1,199 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.runtime;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.spec.FeatureGroupSpec;
+import org.jboss.provisioning.spec.FeatureSpec;
+import org.jboss.provisioning.spec.PackageSpec;
+
+/**
+ * Cache of parsed feature specs, feature group specs and package specs which can be
+ * shared by provisioning runtimes in a long-lived process.
+ *
+ * The specs are keyed by the feature-pack GAV and the spec name and are softly referenced,
+ * i.e. they may be reclaimed by the garbage collector under the memory pressure.
+ * The number of entries is bound, once the limit is reached the least recently used
+ * entries are evicted. The specs of snapshot feature-packs are not cached since
+ * their content may change without the change of the version.
+ *
+ * @author agent
+ */
+public class SpecCache {
+
+    private static final String SNAPSHOT = "-SNAPSHOT";
+
+    private static final byte FEATURE_SPEC = 1;
+    private static final byte FEATURE_GROUP = 2;
+    private static final byte PACKAGE = 3;
+
+    private static class Key {
+        final byte kind;
+        final ArtifactCoords.Gav gav;
+        final String name;
+        final int hash;
+
+        Key(byte kind, ArtifactCoords.Gav gav, String name) {
+            this.kind = kind;
+            this.gav = gav;
+            this.name = name;
+            this.hash = 31 * (31 * kind + gav.hashCode()) + name.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return kind == other.kind && gav.equals(other.gav) && name.equals(other.name);
+        }
+    }
+
+    private static class Value extends SoftReference<Object> {
+        final Key key;
+
+        Value(Key key, Object spec, ReferenceQueue<Object> queue) {
+            super(spec, queue);
+            this.key = key;
+        }
+    }
+
+    public static SpecCache newInstance(int maxEntries) {
+        return new SpecCache(maxEntries);
+    }
+
+    private final int maxEntries;
+    private final Map<Key, Value> entries;
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private long hits;
+    private long misses;
+
+    private SpecCache(int maxEntries) {
+        if(maxEntries < 1) {
+            throw new IllegalArgumentException("The maximum number of entries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, Value>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Value> eldest) {
+                return size() > SpecCache.this.maxEntries;
+            }
+        };
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized int size() {
+        expunge();
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        expunge();
+        hits = 0;
+        misses = 0;
+    }
+
+    FeatureSpec getFeatureSpec(ArtifactCoords.Gav gav, String name) {
+        return (FeatureSpec) get(FEATURE_SPEC, gav, name);
+    }
+
+    void putFeatureSpec(ArtifactCoords.Gav gav, FeatureSpec spec) {
+        put(FEATURE_SPEC, gav, spec.getName(), spec);
+    }
+
+    FeatureGroupSpec getFeatureGroupSpec(ArtifactCoords.Gav gav, String name) {
+        return (FeatureGroupSpec) get(FEATURE_GROUP, gav, name);
+    }
+
+    void putFeatureGroupSpec(ArtifactCoords.Gav gav, String name, FeatureGroupSpec spec) {
+        put(FEATURE_GROUP, gav, name, spec);
+    }
+
+    PackageSpec getPackageSpec(ArtifactCoords.Gav gav, String name) {
+        return (PackageSpec) get(PACKAGE, gav, name);
+    }
+
+    void putPackageSpec(ArtifactCoords.Gav gav, PackageSpec spec) {
+        put(PACKAGE, gav, spec.getName(), spec);
+    }
+
+    private synchronized Object get(byte kind, ArtifactCoords.Gav gav, String name) {
+        if(isSnapshot(gav)) {
+            return null;
+        }
+        expunge();
+        final Value value = entries.get(new Key(kind, gav, name));
+        final Object spec = value == null ? null : value.get();
+        if(spec == null) {
+            ++misses;
+        } else {
+            ++hits;
+        }
+        return spec;
+    }
+
+    private synchronized void put(byte kind, ArtifactCoords.Gav gav, String name, Object spec) {
+        if(isSnapshot(gav)) {
+            return;
+        }
+        expunge();
+        final Key key = new Key(kind, gav, name);
+        entries.put(key, new Value(key, spec, queue));
+    }
+
+    private void expunge() {
+        Value value;
+        while((value = (Value) queue.poll()) != null) {
+            // the entry may have already been replaced
+            if(entries.get(value.key) == value) {
+                entries.remove(value.key);
+            }
+        }
+    }
+
+    private static boolean isSnapshot(ArtifactCoords.Gav gav) {
+        return gav.getVersion() != null && gav.getVersion().endsWith(SNAPSHOT);
+    }
+}
@@ -24,7 +24,7 @@ import java.util.List;
  *
  * @author Alexey Loubyansky
  */
-class SpecFeatures {
+class SpecFeatures extends CapabilityProvider {
 
     private static final byte FREE = 0;
     private static final byte PROCESSING = 1;
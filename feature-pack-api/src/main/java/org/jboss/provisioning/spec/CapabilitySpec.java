@@ -101,10 +101,48 @@ public class CapabilitySpec {
     private final Boolean[] partTypes; // true - static part, false - param part
     private final boolean optional;
 
+    // the compiled form, the capability is resolved as
+    // segments[0] + value of params[0] + segments[1] + ... + value of params[n - 1] + segments[n]
+    private final String[] segments;
+    private final String[] params;
+    private final int staticLength;
+    private final String str;
+
     private CapabilitySpec(List<String> parts, List<Boolean> partTypes, boolean optional) throws ProvisioningDescriptionException {
         this.parts = parts.toArray(new String[parts.size()]);
         this.partTypes = partTypes.toArray(new Boolean[partTypes.size()]);
         this.optional = optional;
+
+        int paramsTotal = 0;
+        for(Boolean staticPart : this.partTypes) {
+            if(!staticPart) {
+                ++paramsTotal;
+            }
+        }
+        segments = new String[paramsTotal + 1];
+        params = new String[paramsTotal];
+        final StringBuilder buf = new StringBuilder();
+        int length = 0;
+        int p = 0;
+        for(int i = 0; i < this.parts.length; ++i) {
+            if(i > 0) {
+                buf.append('.');
+            }
+            if(this.partTypes[i]) {
+                buf.append(this.parts[i]);
+            } else {
+                segments[p] = buf.toString();
+                params[p++] = this.parts[i];
+                length += buf.length();
+                buf.setLength(0);
+            }
+        }
+        segments[p] = buf.toString();
+        staticLength = length + buf.length();
+        // static capability names are used as keys of the provider registries,
+        // the strings of the specs with parameters are only used in messages
+        str = params.length == 0 ? buildString().intern() : buildString();
+
         if(optional && isStatic()) {
             throw new ProvisioningDescriptionException("Static capability cannot be optional: " + toString());
         }
@@ -119,42 +157,23 @@ public class CapabilitySpec {
     }
 
     public String resolve(ResolvedFeature feature) throws ProvisioningException {
-        if(isStatic()) {
-            return toString();
+        if(params.length == 0) {
+            return str;
         }
-        final StringBuilder buf = new StringBuilder();
-        if(partTypes[0]) {
-            buf.append(parts[0]);
-        } else {
-            final String value = feature.getParamOrDefault(parts[0]);
+        final StringBuilder buf = new StringBuilder(staticLength + params.length * 16);
+        buf.append(segments[0]);
+        for(int i = 0; i < params.length; ++i) {
+            final String value = feature.getParamOrDefault(params[i]);
             if (value == null) {
                 if (optional) {
                     return null;
                 }
-                throw new ProvisioningException(Errors.capabilityMissingParameter(this, parts[0]));
+                throw new ProvisioningException(Errors.capabilityMissingParameter(this, params[i]));
             }
             if (value.trim().isEmpty()) {
-                throw new ProvisioningException(Errors.capabilityMissingParameter(this, parts[0]));
-            }
-            buf.append(value);
-        }
-        for(int i = 1; i < parts.length; ++i) {
-            buf.append('.');
-            if(partTypes[i]) {
-                buf.append(parts[i]);
-            } else {
-                final String value = feature.getParamOrDefault(parts[i]);
-                if (value == null) {
-                    if (optional) {
-                        return null;
-                    }
-                    throw new ProvisioningException(Errors.capabilityMissingParameter(this, parts[i]));
-                }
-                if (value.trim().isEmpty()) {
-                    throw new ProvisioningException(Errors.capabilityMissingParameter(this, parts[i]));
-                }
-                buf.append(value);
+                throw new ProvisioningException(Errors.capabilityMissingParameter(this, params[i]));
             }
+            buf.append(value).append(segments[i + 1]);
         }
         return buf.toString();
     }
@@ -189,6 +208,10 @@ public class CapabilitySpec {
 
     @Override
     public String toString() {
+        return str;
+    }
+
+    private String buildString() {
         if(parts.length == 1 && partTypes[0]) {
             return parts[0];
         }
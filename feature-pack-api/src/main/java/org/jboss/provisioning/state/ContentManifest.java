@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.state;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.util.HashUtils;
+import org.jboss.provisioning.util.PathFilter;
+
+/**
+ * Content manifest of a provisioned installation. For every file the manifest
+ * records its size, last modification time and hash at the moment the file was installed.
+ * The paths are relative to the installation directory and use '/' as the separator.
+ *
+ * A file whose size and last modification time match the manifest is assumed to be
+ * unmodified, which allows to avoid re-reading it.
+ *
+ * @author agent
+ */
+public class ContentManifest {
+
+    private static final String MANIFEST_PATH = Constants.PROVISIONED_STATE_DIR + '/' + Constants.CONTENT_MANIFEST;
+
+    public static class Entry {
+
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+
+        public Entry(String path, long size, long lastModified, String hash) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * Checks whether the size and the last modification time of the file
+         * match the ones recorded in this entry.
+         *
+         * @param file  the file
+         * @return  true if the file appears to be unmodified
+         * @throws IOException  in case the file attributes could not be read
+         */
+        public boolean matches(Path file) throws IOException {
+            return Files.size(file) == size && Files.getLastModifiedTime(file).toMillis() == lastModified;
+        }
+    }
+
+    public static class Builder {
+
+        private Map<String, Entry> entries = Collections.emptyMap();
+
+        private Builder() {
+        }
+
+        public Builder addEntry(Entry entry) {
+            if(entries.isEmpty()) {
+                entries = new TreeMap<>();
+            }
+            entries.put(entry.path, entry);
+            return this;
+        }
+
+        public ContentManifest build() {
+            return new ContentManifest(this);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates the manifest of the content of the installation directory.
+     * The manifest file itself is not included.
+     *
+     * @param installationDir  installation directory
+     * @param pool  pool to hash the files with
+     * @return  the manifest
+     * @throws IOException  in case of a failure
+     */
+    public static ContentManifest create(Path installationDir, ForkJoinPool pool) throws IOException {
+        return create(installationDir, HashUtils.hashTree(installationDir, getFilter(PathFilter.DEFAULT), pool));
+    }
+
+    /**
+     * Creates the manifest of the content of the installation directory
+     * from the hashes of its files computed in advance.
+     *
+     * @param installationDir  installation directory
+     * @param hashes  hashes of the files by their paths relative to the installation directory
+     * @return  the manifest
+     * @throws IOException  in case of a failure
+     */
+    public static ContentManifest create(Path installationDir, Map<Path, String> hashes) throws IOException {
+        final Builder builder = builder();
+        for(Map.Entry<Path, String> hash : hashes.entrySet()) {
+            final Path file = installationDir.resolve(hash.getKey());
+            if(Files.isRegularFile(file)) {
+                builder.addEntry(new Entry(toEntryPath(hash.getKey()), Files.size(file), Files.getLastModifiedTime(file).toMillis(), hash.getValue()));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns a filter that accepts the paths accepted by the argument filter
+     * except for the manifest file.
+     *
+     * @param filter  the filter
+     * @return  filter excluding the manifest file
+     */
+    public static PathFilter getFilter(PathFilter filter) {
+        return path -> !MANIFEST_PATH.equals(toEntryPath(path)) && filter.accept(path);
+    }
+
+    /**
+     * Converts a path relative to the installation directory to the path of a manifest entry.
+     *
+     * @param relativePath  path relative to the installation directory
+     * @return  path of the manifest entry
+     */
+    public static String toEntryPath(Path relativePath) {
+        final String path = relativePath.toString();
+        return File.separatorChar == '/' ? path : path.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Reads the manifest.
+     *
+     * @param file  manifest file
+     * @return  the manifest or an empty manifest if the file does not exist
+     * @throws IOException  in case of a failure
+     */
+    public static ContentManifest read(Path file) throws IOException {
+        final Builder builder = builder();
+        if(!Files.exists(file)) {
+            return builder.build();
+        }
+        try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.isEmpty()) {
+                    continue;
+                }
+                final int hashEnd = line.indexOf(' ');
+                final int sizeEnd = line.indexOf(' ', hashEnd + 1);
+                final int timeEnd = line.indexOf(' ', sizeEnd + 1);
+                if(hashEnd < 0 || sizeEnd < 0 || timeEnd < 0) {
+                    throw new IOException("Unexpected manifest line format: " + line);
+                }
+                builder.addEntry(new Entry(line.substring(timeEnd + 1),
+                        Long.parseLong(line.substring(hashEnd + 1, sizeEnd)),
+                        Long.parseLong(line.substring(sizeEnd + 1, timeEnd)),
+                        line.substring(0, hashEnd)));
+            }
+        } catch(NumberFormatException e) {
+            throw new IOException("Failed to parse " + file, e);
+        }
+        return builder.build();
+    }
+
+    private final Map<String, Entry> entries;
+
+    private ContentManifest(Builder builder) {
+        this.entries = Collections.unmodifiableMap(builder.entries);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public Entry getEntry(String path) {
+        return entries.get(path);
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    public void write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        try(BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for(Entry entry : entries.values()) {
+                writer.write(entry.hash);
+                writer.write(' ');
+                writer.write(String.valueOf(entry.size));
+                writer.write(' ');
+                writer.write(String.valueOf(entry.lastModified));
+                writer.write(' ');
+                writer.write(entry.path);
+                writer.newLine();
+            }
+        }
+    }
+}
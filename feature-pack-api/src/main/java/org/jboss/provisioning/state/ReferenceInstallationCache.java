@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.state;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.jboss.provisioning.DefaultMessageWriter;
+import org.jboss.provisioning.Errors;
+import org.jboss.provisioning.MessageWriter;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.util.HashUtils;
+import org.jboss.provisioning.util.IoUtils;
+import org.jboss.provisioning.util.SharedDirCache;
+import org.jboss.provisioning.xml.ProvisioningXmlWriter;
+
+/**
+ * Persistent on-disk cache of pristine installations provisioned from a provisioning
+ * config, which serve as the reference when the changes of an installation are exported.
+ *
+ * Entries are keyed by the hash of the provisioning config XML and the version
+ * of the provisioning library, since a different version of the library may
+ * provision a different installation from the same config. Configs that include
+ * snapshot feature-packs are not cached since their content may change without
+ * the change of the config. A mounted entry must not be modified. The number of entries
+ * is kept under the configured limit by evicting the least recently used entries
+ * that are not mounted at the moment. The modifications of the cache are guarded
+ * by a lock file in the cache directory, see {@link SharedDirCache}.
+ *
+ * @author agent
+ */
+public class ReferenceInstallationCache {
+
+    /**
+     * Mounted cache entry. The entry is protected from eviction until it is closed.
+     */
+    public static class Mount implements Closeable {
+
+        private final SharedDirCache.Mount mount;
+        private final Path installationDir;
+
+        private Mount(SharedDirCache.Mount mount) {
+            this.mount = mount;
+            this.installationDir = mount.getEntryDir().resolve(INSTALLATION);
+        }
+
+        /**
+         * Pristine installation provisioned from the config.
+         *
+         * @return  installation directory
+         */
+        public Path getInstallationDir() {
+            return installationDir;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mount.close();
+        }
+    }
+
+    private static final String INSTALLATION = "installation";
+    private static final String SNAPSHOT = "-SNAPSHOT";
+    /** the implementation version from the manifest, which is missing when not running from the jar */
+    private static final String TOOL_VERSION = String.valueOf(ReferenceInstallationCache.class.getPackage().getImplementationVersion());
+
+    public static ReferenceInstallationCache newInstance(Path dir, int maxEntries) {
+        return newInstance(dir, maxEntries, DefaultMessageWriter.getDefaultInstance());
+    }
+
+    public static ReferenceInstallationCache newInstance(Path dir, int maxEntries, MessageWriter messageWriter) {
+        return new ReferenceInstallationCache(dir, maxEntries, messageWriter);
+    }
+
+    private final SharedDirCache cache;
+    private final int maxEntries;
+    private final MessageWriter messageWriter;
+
+    private ReferenceInstallationCache(Path dir, int maxEntries, MessageWriter messageWriter) {
+        if(maxEntries < 1) {
+            throw new IllegalArgumentException("The maximum number of entries must be positive: " + maxEntries);
+        }
+        // each entry weighs one
+        this.cache = new SharedDirCache(dir, maxEntries);
+        this.maxEntries = maxEntries;
+        this.messageWriter = messageWriter;
+    }
+
+    public Path getDir() {
+        return cache.getDir();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Mounts the installation provisioned from the config, if it is in the cache.
+     *
+     * @param config  provisioning config
+     * @return  mounted cache entry which has to be closed when it is not used any more
+     * or null if the cache does not contain the installation
+     * @throws ProvisioningException  in case of a failure
+     */
+    public Mount mount(ProvisioningConfig config) throws ProvisioningException {
+        final Path entryDir = getEntryDir(config);
+        if(entryDir == null) {
+            return null;
+        }
+        try {
+            final SharedDirCache.Mount mount = cache.mount(entryDir);
+            return mount == null ? null : new Mount(mount);
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.openFile(entryDir), e);
+        }
+    }
+
+    /**
+     * Adds the installation provisioned from the config to the cache and mounts it.
+     * The installation directory is moved into the cache, if possible, or copied otherwise.
+     *
+     * @param config  provisioning config the installation was provisioned from
+     * @param installationDir  pristine installation
+     * @return  mounted cache entry which has to be closed when it is not used any more
+     * or null if the installation can't be cached
+     * @throws ProvisioningException  in case of a failure
+     */
+    public Mount add(ProvisioningConfig config, Path installationDir) throws ProvisioningException {
+        final Path entryDir = getEntryDir(config);
+        if(entryDir == null) {
+            return null;
+        }
+
+        final Path tmpDir;
+        try {
+            tmpDir = cache.newTmpPath();
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.mkdirs(cache.getDir()), e);
+        }
+        try {
+            Files.createDirectories(tmpDir);
+            try {
+                Files.move(installationDir, tmpDir.resolve(INSTALLATION), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                IoUtils.copy(installationDir, tmpDir.resolve(INSTALLATION));
+            }
+        } catch (IOException e) {
+            IoUtils.recursiveDelete(tmpDir);
+            throw new ProvisioningException(Errors.copyFile(installationDir, tmpDir), e);
+        }
+
+        try {
+            return new Mount(cache.add(tmpDir, entryDir, 1));
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.moveFile(tmpDir, entryDir), e);
+        }
+    }
+
+    private Path getEntryDir(ProvisioningConfig config) throws ProvisioningException {
+        for(FeaturePackConfig fpConfig : config.getFeaturePacks()) {
+            final String version = fpConfig.getGav().getVersion();
+            if(version != null && version.endsWith(SNAPSHOT)) {
+                return null;
+            }
+        }
+        final Path xml;
+        try {
+            xml = cache.newTmpPath();
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.mkdirs(cache.getDir()), e);
+        }
+        try {
+            ProvisioningXmlWriter.getInstance().write(config, xml);
+            return cache.getDir().resolve(HashUtils.hash(TOOL_VERSION + ':' + HashUtils.hashFile(xml)));
+        } catch (XMLStreamException | IOException e) {
+            throw new ProvisioningException(Errors.writeFile(xml), e);
+        } finally {
+            try {
+                Files.deleteIfExists(xml);
+            } catch (IOException e) {
+                messageWriter.error(e, Errors.deletePath(xml));
+            }
+        }
+    }
+}
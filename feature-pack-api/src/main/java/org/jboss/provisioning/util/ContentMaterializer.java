@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.util;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+
+/**
+ * Strategy of materializing the content of an unpacked layout in the target
+ * directory.
+ *
+ * {@link #COPY} copies the content. {@link #HARDLINK} creates hard links to the
+ * source files, which is a metadata-only operation. It falls back to copying
+ * when the source and the target are on different file stores or when the file
+ * system does not support hard links. The hard linked files share their content
+ * and attributes with the source files, so the source must not be modified
+ * afterwards and the target files must not be modified in place while the
+ * source is still in use.
+ *
+ * @author agent
+ */
+public abstract class ContentMaterializer {
+
+    public static final ContentMaterializer COPY = new ContentMaterializer("copy") {
+        @Override
+        public void materializeFile(Path source, Path target) throws IOException {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    };
+
+    public static final ContentMaterializer HARDLINK = new ContentMaterializer("hardlink") {
+        @Override
+        public void materialize(Path source, Path target) throws IOException {
+            if(!Files.isDirectory(source)) {
+                super.materialize(source, target);
+                return;
+            }
+            Files.createDirectories(target);
+            if(!Files.getFileStore(source).equals(Files.getFileStore(target))) {
+                // the links can't cross the file store boundaries
+                COPY.materialize(source, target);
+                return;
+            }
+            super.materialize(source, target);
+        }
+
+        @Override
+        public void materializeFile(Path source, Path target) throws IOException {
+            Files.deleteIfExists(target);
+            try {
+                Files.createLink(target, source.toRealPath());
+            } catch(FileSystemException | UnsupportedOperationException e) {
+                Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    };
+
+    private final String name;
+
+    protected ContentMaterializer(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Materializes the source file or directory tree in the target location,
+     * replacing the existing target files.
+     *
+     * @param source  source file or directory
+     * @param target  target file or directory
+     * @throws IOException  in case of a failure
+     */
+    public void materialize(Path source, Path target) throws IOException {
+        if(Files.isDirectory(source)) {
+            Files.createDirectories(target);
+        } else {
+            Files.createDirectories(target.getParent());
+        }
+        Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                        throws IOException {
+                        final Path targetDir = target.resolve(source.relativize(dir).toString());
+                        try {
+                            Files.copy(dir, targetDir);
+                        } catch (FileAlreadyExistsException e) {
+                             if (!Files.isDirectory(targetDir)) {
+                                 throw e;
+                             }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                        throws IOException {
+                        materializeFile(file, target.resolve(source.relativize(file).toString()));
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+    }
+
+    /**
+     * Materializes a single source file as the target file, replacing the target
+     * file if it exists. The parent directory of the target must exist.
+     *
+     * @param source  source file
+     * @param target  target file
+     * @throws IOException  in case of a failure
+     */
+    public abstract void materializeFile(Path source, Path target) throws IOException;
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
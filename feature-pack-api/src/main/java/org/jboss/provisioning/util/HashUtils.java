@@ -16,18 +16,31 @@
  */
 package org.jboss.provisioning.util;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.ZipEntry;
+
+import org.jboss.provisioning.state.ContentManifest;
 
 /**
  *
@@ -36,37 +49,136 @@ import java.util.TreeMap;
 public class HashUtils {
 
     private static final char[] TABLE = "0123456789abcdef".toCharArray();
+    private static final String META_INF = "META-INF/";
 
-    private static final MessageDigest DIGEST;
-    static {
-        try {
-            DIGEST = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * The digests and the buffers are per thread, so that the hashes can be
+     * calculated concurrently.
+     */
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
         }
+    };
+
+    private static MessageDigest getDigest() {
+        final MessageDigest digest = DIGEST.get();
+        digest.reset();
+        return digest;
     }
 
     public static byte[] hashPath(Path path) throws IOException {
-        synchronized (DIGEST) {
-            DIGEST.reset();
-            updateDigest(DIGEST, path);
-            return DIGEST.digest();
-        }
+        final MessageDigest digest = getDigest();
+        updateDigest(digest, path);
+        return digest.digest();
     }
 
     public static String hashFile(Path path) throws IOException {
-        synchronized (DIGEST) {
-            DIGEST.reset();
-            updateDigest(DIGEST, path);
-            return bytesToHexString(DIGEST.digest());
-        }
+        final MessageDigest digest = getDigest();
+        updateDigest(digest, path);
+        return bytesToHexString(digest.digest());
     }
 
     public static String hash(String content) throws IOException {
-        synchronized (DIGEST) {
-            DIGEST.reset();
-            DIGEST.update(content.getBytes(StandardCharsets.UTF_8));
-            return bytesToHexString(DIGEST.digest());
+        final MessageDigest digest = getDigest();
+        digest.update(content.getBytes(StandardCharsets.UTF_8));
+        return bytesToHexString(digest.digest());
+    }
+
+    public static Map<Path, String> hashTree(Path root, PathFilter filter, ForkJoinPool pool) throws IOException {
+        return hashTree(root, filter, null, pool);
+    }
+
+    /**
+     * Hashes the files of the directory tree concurrently using the specified pool.
+     * The directory subtrees and the files are hashed as separate fork-join tasks.
+     * Empty directories are included in the result with the hash of their relative path.
+     * The files whose size and last modification time match their entries in the
+     * content manifest are not read, the hashes recorded in the manifest are used instead.
+     *
+     * @param root  the root of the tree
+     * @param filter  filter the paths relative to the root have to satisfy
+     * @param manifest  content manifest of the tree or null
+     * @param pool  pool to use
+     * @return  file hashes by their paths relative to the root
+     * @throws IOException  in case of a failure
+     */
+    public static Map<Path, String> hashTree(Path root, PathFilter filter, ContentManifest manifest, ForkJoinPool pool) throws IOException {
+        if(Files.isRegularFile(root)) {
+            return Collections.singletonMap(root.relativize(root), hashFile(root));
+        }
+        final Map<Path, String> hashes = new ConcurrentHashMap<>();
+        try {
+            pool.invoke(new TreeHashTask(root, root, filter, manifest == null || manifest.isEmpty() ? null : manifest, hashes));
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return hashes;
+    }
+
+    private static class TreeHashTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path root;
+        private final Path path;
+        private final PathFilter filter;
+        private final ContentManifest manifest;
+        private final Map<Path, String> hashes;
+
+        TreeHashTask(Path root, Path path, PathFilter filter, ContentManifest manifest, Map<Path, String> hashes) {
+            this.root = root;
+            this.path = path;
+            this.filter = filter;
+            this.manifest = manifest;
+            this.hashes = hashes;
+        }
+
+        @Override
+        protected void compute() {
+            final Path relativePath = root.relativize(path);
+            try {
+                if(!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    if(filter.accept(relativePath)) {
+                        final ContentManifest.Entry entry = manifest == null ? null : manifest.getEntry(ContentManifest.toEntryPath(relativePath));
+                        hashes.put(relativePath, entry != null && entry.matches(path) ? entry.getHash() : hashFile(path));
+                    }
+                    return;
+                }
+                if(!filter.accept(relativePath)) {
+                    return;
+                }
+                final List<TreeHashTask> tasks = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                    for (Path child : stream) {
+                        tasks.add(new TreeHashTask(root, child, filter, manifest, hashes));
+                    }
+                } catch(IOException | DirectoryIteratorException e) {
+                    // the directory could not be read, it is reported as an empty one
+                    tasks.clear();
+                }
+                if(tasks.isEmpty()) {
+                    hashes.put(relativePath, hash(relativePath.toString()));
+                } else {
+                    invokeAll(tasks);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
     }
 
@@ -82,37 +194,39 @@ public class HashUtils {
                 }
             }
         } else {
-            try (BufferedInputStream bis = new BufferedInputStream(Files.newInputStream(path))){
-                byte[] bytes = new byte[8192];
-                int read;
-                while ((read = bis.read(bytes)) > -1) {
-                    digest.update(bytes, 0, read);
+            final ByteBuffer buf = BUFFER.get();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buf.clear();
+                while (channel.read(buf) > -1) {
+                    buf.flip();
+                    digest.update(buf);
+                    buf.clear();
                 }
             }
         }
     }
 
     public static byte[] hashJar(Path jarFile, boolean ignoreManifest) throws IOException {
-        synchronized (DIGEST) {
-            DIGEST.reset();
-            try (FileSystem zipfs = FileSystems.newFileSystem(jarFile, null)) {
-                for (Path zipRoot : zipfs.getRootDirectories()) {
-                    final Map<String, Path> sortedChildren = new TreeMap<String, Path>();
-                    try(DirectoryStream<Path> stream = Files.newDirectoryStream(zipRoot)) {
-                        for(Path p : stream) {
-                            final String fileName = p.getFileName().toString();
-                            if(ignoreManifest && fileName.equals("META-INF/")) {
-                                continue;
-                            }
-                            sortedChildren.put(fileName, p);
-                        }
+        // the entries are sorted by name which matches the depth-first order of sorted directory children
+        try (ZipArchive archive = ZipArchive.open(jarFile)) {
+            final MessageDigest digest = getDigest();
+            final byte[] buf = ZipArchive.takeBuffer();
+            try {
+                for (ZipEntry entry : archive.getEntries().values()) {
+                    if (entry.isDirectory() || ignoreManifest && entry.getName().startsWith(META_INF)) {
+                        continue;
                     }
-                    for (Path child : sortedChildren.values()) {
-                        updateDigest(DIGEST, child);
+                    try (InputStream in = archive.getInputStream(entry)) {
+                        int read;
+                        while ((read = in.read(buf)) > -1) {
+                            digest.update(buf, 0, read);
+                        }
                     }
                 }
+            } finally {
+                ZipArchive.returnBuffer(buf);
             }
-            return DIGEST.digest();
+            return digest.digest();
         }
     }
 
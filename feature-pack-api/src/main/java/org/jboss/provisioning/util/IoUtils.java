@@ -23,7 +23,6 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -33,9 +32,11 @@ import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jboss.provisioning.state.ContentManifest;
 
 /**
  *
@@ -135,45 +136,18 @@ public class IoUtils {
         Files.write(file, content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE);
     }
 
-     public static Map<Path, String> listContents(Path root, PathFilter filter) throws IOException {
+    public static Map<Path, String> listContents(Path root, PathFilter filter) throws IOException {
+        return listContents(root, filter, ForkJoinPool.commonPool());
+    }
+
+    public static Map<Path, String> listContents(Path root, PathFilter filter, ForkJoinPool pool) throws IOException {
+        return listContents(root, filter, null, pool);
+    }
+
+    public static Map<Path, String> listContents(Path root, PathFilter filter, ContentManifest manifest, ForkJoinPool pool) throws IOException {
         if (root == null || !Files.exists(root)) {
             return Collections.emptyMap();
         }
-        if(Files.isRegularFile(root)) {
-            return Collections.singletonMap(root.relativize(root), HashUtils.hashFile(root));
-        }
-        Map<Path, String> contents = new HashMap<>();
-        Files.walkFileTree(root, new FileVisitor<Path>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                if (filter.accept(root.relativize(dir))) {
-                    String[] files = dir.toFile().list();
-                    if (files == null || files.length == 0) {
-                        contents.put(root.relativize(dir), HashUtils.hash(root.relativize(dir).toString()));
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-                return FileVisitResult.SKIP_SUBTREE;
-            }
-
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if(filter.accept(root.relativize(file))) {
-                    contents.put(root.relativize(file), HashUtils.hashFile(file));
-                }
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                return FileVisitResult.CONTINUE;
-            }
-        });
-        return contents;
+        return HashUtils.hashTree(root, filter, manifest, pool);
     }
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Directory of cache entries which can be shared across provisioning runs and JVMs.
+ *
+ * Each entry is a sub-directory. A mounted entry is protected from eviction
+ * until the mount is closed. The total weight of the entries is kept under
+ * the limit by evicting the least recently used entries that are not mounted
+ * at the moment. The modifications of the cache are guarded by a lock file
+ * in the cache directory.
+ *
+ * @author agent
+ */
+public class SharedDirCache {
+
+    /**
+     * Mounted cache entry.
+     */
+    public static class Mount implements Closeable {
+
+        private final Path entryDir;
+        private final Path inUseMarker;
+
+        private Mount(Path entryDir, Path inUseMarker) {
+            this.entryDir = entryDir;
+            this.inUseMarker = inUseMarker;
+        }
+
+        public Path getEntryDir() {
+            return entryDir;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Files.deleteIfExists(inUseMarker);
+        }
+    }
+
+    private static class Entry {
+        final Path dir;
+        final long weight;
+        final long lastUsed;
+
+        Entry(Path dir, long weight, long lastUsed) {
+            this.dir = dir;
+            this.weight = weight;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static final String LOCK_FILE = ".lock";
+    /** the modification time of this file is the last time the entry was mounted, the content is the weight of the entry */
+    private static final String LAST_USED = "last-used";
+    private static final String IN_USE_PREFIX = "in-use-";
+    private static final String TMP_PREFIX = ".tmp-";
+
+    /** in-use markers and temporary directories older than this are considered left-overs of crashed processes */
+    private static final long STALE_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    /** file locks are held on behalf of the whole JVM, this monitor serializes their use inside the JVM */
+    private static final Object JVM_LOCK = new Object();
+
+    private final Path dir;
+    private final long maxWeight;
+
+    public SharedDirCache(Path dir, long maxWeight) {
+        this.dir = dir;
+        this.maxWeight = maxWeight;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * Creates the cache directory, if it does not exist, and returns a new
+     * temporary path in it which can be prepared as an entry and then added.
+     *
+     * @return  temporary path which does not exist yet
+     * @throws IOException  in case the cache directory could not be created
+     */
+    public Path newTmpPath() throws IOException {
+        Files.createDirectories(dir);
+        return dir.resolve(TMP_PREFIX + UUID.randomUUID().toString());
+    }
+
+    /**
+     * Mounts the entry, if it is in the cache.
+     *
+     * @param entryDir  entry directory
+     * @return  mounted entry or null if the cache does not contain the entry
+     * @throws IOException  in case of a failure
+     */
+    public Mount mount(Path entryDir) throws IOException {
+        synchronized (JVM_LOCK) {
+            try (FileChannel lock = lock()) {
+                return Files.exists(entryDir.resolve(LAST_USED)) ? doMount(entryDir) : null;
+            }
+        }
+    }
+
+    /**
+     * Moves the prepared temporary directory into the cache as the entry, unless
+     * the entry has been added by someone else in the meantime, mounts the entry and
+     * evicts the entries over the limit. The temporary directory is removed in any case.
+     *
+     * @param tmpDir  prepared entry directory created in the path returned by {@link #newTmpPath()}
+     * @param entryDir  entry directory
+     * @param weight  the weight of the entry
+     * @return  mounted entry
+     * @throws IOException  in case of a failure
+     */
+    public Mount add(Path tmpDir, Path entryDir, long weight) throws IOException {
+        synchronized (JVM_LOCK) {
+            try (FileChannel lock = lock()) {
+                if (Files.exists(entryDir)) {
+                    IoUtils.recursiveDelete(tmpDir);
+                } else {
+                    Files.write(tmpDir.resolve(LAST_USED), String.valueOf(weight).getBytes(StandardCharsets.UTF_8));
+                    Files.move(tmpDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+                }
+                final Mount mount = doMount(entryDir);
+                evict();
+                return mount;
+            } catch (IOException e) {
+                IoUtils.recursiveDelete(tmpDir);
+                throw e;
+            }
+        }
+    }
+
+    private FileChannel lock() throws IOException {
+        final FileChannel channel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private static Mount doMount(Path entryDir) throws IOException {
+        final Path marker = entryDir.resolve(IN_USE_PREFIX + UUID.randomUUID().toString());
+        Files.createFile(marker);
+        Files.setLastModifiedTime(entryDir.resolve(LAST_USED), FileTime.fromMillis(System.currentTimeMillis()));
+        return new Mount(entryDir, marker);
+    }
+
+    /**
+     * Removes the least recently used entries which are not mounted until
+     * the total weight is under the limit. Must be called holding the lock.
+     */
+    private void evict() throws IOException {
+        final long staleTime = System.currentTimeMillis() - STALE_MILLIS;
+        final List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entryDir : stream) {
+                final String name = entryDir.getFileName().toString();
+                if (name.startsWith(TMP_PREFIX)) {
+                    if (Files.getLastModifiedTime(entryDir).toMillis() < staleTime) {
+                        IoUtils.recursiveDelete(entryDir);
+                    }
+                    continue;
+                }
+                final Path lastUsed = entryDir.resolve(LAST_USED);
+                if (!Files.exists(lastUsed)) {
+                    continue;
+                }
+                final long weight = Long.parseLong(new String(Files.readAllBytes(lastUsed), StandardCharsets.UTF_8).trim());
+                total += weight;
+                if (!isInUse(entryDir, staleTime)) {
+                    entries.add(new Entry(entryDir, weight, Files.getLastModifiedTime(lastUsed).toMillis()));
+                }
+            }
+        }
+        if (total <= maxWeight) {
+            return;
+        }
+        Collections.sort(entries, (e1, e2) -> Long.compare(e1.lastUsed, e2.lastUsed));
+        for (Entry entry : entries) {
+            // move the entry out of the way first so that a partially deleted entry is never mounted
+            final Path tmpDir = dir.resolve(TMP_PREFIX + UUID.randomUUID().toString());
+            Files.move(entry.dir, tmpDir, StandardCopyOption.ATOMIC_MOVE);
+            IoUtils.recursiveDelete(tmpDir);
+            total -= entry.weight;
+            if (total <= maxWeight) {
+                break;
+            }
+        }
+    }
+
+    private static boolean isInUse(Path entryDir, long staleTime) throws IOException {
+        boolean inUse = false;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(entryDir, IN_USE_PREFIX + '*')) {
+            for (Path marker : stream) {
+                if (Files.getLastModifiedTime(marker).toMillis() < staleTime) {
+                    Files.deleteIfExists(marker);
+                } else {
+                    inUse = true;
+                }
+            }
+        }
+        return inUse;
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Zip archive opened for reading and extraction.
+ *
+ * The entries are located by iterating the central directory of the archive
+ * and extracted directly from the {@link ZipFile} using pooled buffers, optionally
+ * inflating the entries in parallel. The POSIX permissions recorded in the archive
+ * are applied to the extracted files if the target file-system supports them.
+ *
+ * Instances of this class are safe to use from multiple threads.
+ *
+ * @author agent
+ */
+public class ZipArchive implements Closeable {
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
+    /** entries smaller than this are not worth a task of their own */
+    private static final long PARALLEL_MIN_SIZE = 8192;
+
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int EOCD_LEN = 22;
+    private static final int CEN_LEN = 46;
+    private static final int UNIX_HOST = 3;
+
+    private static final PosixFilePermission[] PERMISSIONS = new PosixFilePermission[] {
+            PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+            PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+            PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ};
+
+    public static ZipArchive open(Path path) throws IOException {
+        return new ZipArchive(path);
+    }
+
+    static byte[] takeBuffer() {
+        final byte[] buf = BUFFERS.poll();
+        return buf == null ? new byte[BUFFER_SIZE] : buf;
+    }
+
+    static void returnBuffer(byte[] buf) {
+        BUFFERS.offer(buf);
+    }
+
+    private final Path path;
+    private final ZipFile zipFile;
+    private volatile NavigableMap<String, ZipEntry> entries;
+    private volatile Map<String, Integer> posixModes;
+    private FileSystem zipfs;
+
+    private ZipArchive(Path path) throws IOException {
+        this.path = path;
+        this.zipFile = new ZipFile(path.toFile());
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the root of the file-system view of the archive which is opened
+     * on the first invocation and closed together with the archive.
+     *
+     * @return  root of the archive file-system
+     * @throws IOException  in case the file-system could not be opened
+     */
+    public synchronized Path getRoot() throws IOException {
+        if(zipfs == null) {
+            zipfs = ZipUtils.newFileSystem(path);
+        }
+        return zipfs.getRootDirectories().iterator().next();
+    }
+
+    /**
+     * Entries of the archive sorted by name.
+     *
+     * @return  entries of the archive sorted by name
+     */
+    public NavigableMap<String, ZipEntry> getEntries() {
+        NavigableMap<String, ZipEntry> entries = this.entries;
+        if(entries == null) {
+            synchronized(this) {
+                entries = this.entries;
+                if(entries == null) {
+                    entries = new TreeMap<>();
+                    final Enumeration<? extends ZipEntry> e = zipFile.entries();
+                    while(e.hasMoreElements()) {
+                        final ZipEntry entry = e.nextElement();
+                        entries.put(entry.getName(), entry);
+                    }
+                    this.entries = entries = Collections.unmodifiableNavigableMap(entries);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Entries located under the directory.
+     *
+     * @param dir  directory entry name ending with '/' or an empty string for the root
+     * @return  entries under the directory sorted by name
+     */
+    public NavigableMap<String, ZipEntry> getEntries(String dir) {
+        if(dir.isEmpty()) {
+            return getEntries();
+        }
+        return getEntries().subMap(dir, true, dir + Character.MAX_VALUE, false);
+    }
+
+    public InputStream getInputStream(ZipEntry entry) throws IOException {
+        return zipFile.getInputStream(entry);
+    }
+
+    public void extract(Path target) throws IOException {
+        extract("", target, null, null);
+    }
+
+    public void extract(String dir, Path target) throws IOException {
+        extract(dir, target, null, null);
+    }
+
+    /**
+     * Extracts the content of a directory in the archive.
+     *
+     * @param dir  directory entry name ending with '/' or an empty string for the whole archive
+     * @param target  target directory
+     * @param filter  filter accepting the entry paths relative to dir (without a trailing '/' for directories)
+     *                or null to extract everything
+     * @param executor  executor to inflate the entries in parallel or null to extract them in the calling thread
+     * @throws IOException  in case of a failure
+     */
+    public void extract(String dir, Path target, Predicate<String> filter, ExecutorService executor) throws IOException {
+        final Path normalizedTarget = target.toAbsolutePath().normalize();
+        final Map<String, Integer> modes = target.getFileSystem().supportedFileAttributeViews().contains("posix") ? getPosixModes() : Collections.emptyMap();
+        final Set<Path> createdDirs = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        Files.createDirectories(normalizedTarget);
+        createdDirs.add(normalizedTarget);
+
+        List<Future<?>> tasks = Collections.emptyList();
+        try {
+            for (Map.Entry<String, ZipEntry> e : getEntries(dir).entrySet()) {
+                final ZipEntry entry = e.getValue();
+                String relativePath = e.getKey().substring(dir.length());
+                if (relativePath.isEmpty()) {
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    relativePath = relativePath.substring(0, relativePath.length() - 1);
+                }
+                if (filter != null && !filter.test(relativePath)) {
+                    continue;
+                }
+                final Path targetPath = normalizedTarget.resolve(relativePath).normalize();
+                if (!targetPath.startsWith(normalizedTarget)) {
+                    throw new IOException("Entry " + e.getKey() + " of " + path + " is outside of the target directory " + target);
+                }
+                if (entry.isDirectory()) {
+                    mkdirs(targetPath, createdDirs);
+                    continue;
+                }
+                final Integer mode = modes.get(e.getKey());
+                if (executor == null || entry.getSize() >= 0 && entry.getSize() < PARALLEL_MIN_SIZE) {
+                    extractEntry(entry, targetPath, mode, createdDirs);
+                } else {
+                    if (tasks.isEmpty()) {
+                        tasks = new ArrayList<>();
+                    }
+                    tasks.add(executor.submit(() -> {
+                        extractEntry(entry, targetPath, mode, createdDirs);
+                        return null;
+                    }));
+                }
+            }
+        } finally {
+            awaitAll(tasks);
+        }
+    }
+
+    private static void awaitAll(List<Future<?>> tasks) throws IOException {
+        IOException error = null;
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (error == null) {
+                    error = new IOException("Interrupted while extracting entries", e);
+                }
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    final Throwable cause = e.getCause();
+                    error = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void extractEntry(ZipEntry entry, Path target, Integer mode, Set<Path> createdDirs) throws IOException {
+        mkdirs(target.getParent(), createdDirs);
+        final byte[] buf = takeBuffer();
+        try (InputStream in = zipFile.getInputStream(entry);
+                OutputStream out = Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                out.write(buf, 0, read);
+            }
+        } finally {
+            returnBuffer(buf);
+        }
+        if (mode != null) {
+            Files.setPosixFilePermissions(target, toPermissions(mode));
+        }
+    }
+
+    private static void mkdirs(Path dir, Set<Path> createdDirs) throws IOException {
+        if (createdDirs.contains(dir)) {
+            return;
+        }
+        Files.createDirectories(dir);
+        createdDirs.add(dir);
+    }
+
+    private static Set<PosixFilePermission> toPermissions(int mode) {
+        final Set<PosixFilePermission> perms = EnumSet.noneOf(PosixFilePermission.class);
+        for (int i = 0; i < PERMISSIONS.length; ++i) {
+            if ((mode & 1 << i) != 0) {
+                perms.add(PERMISSIONS[i]);
+            }
+        }
+        return perms;
+    }
+
+    /**
+     * Unix permission bits of the entries recorded in the central directory.
+     * {@link ZipEntry} does not expose the external attributes, so the central directory
+     * is read here. Zip64 archives are not supported, for those no permissions are returned.
+     */
+    private Map<String, Integer> getPosixModes() throws IOException {
+        Map<String, Integer> modes = this.posixModes;
+        if (modes == null) {
+            synchronized (this) {
+                modes = this.posixModes;
+                if (modes == null) {
+                    this.posixModes = modes = readPosixModes(path);
+                }
+            }
+        }
+        return modes;
+    }
+
+    private static Map<String, Integer> readPosixModes(Path zip) throws IOException {
+        try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final int tailSize = (int) Math.min(size, EOCD_LEN + 0xffff);
+            final ByteBuffer tail = read(channel, size - tailSize, tailSize);
+            int eocd = tailSize - EOCD_LEN;
+            while (eocd >= 0 && tail.getInt(eocd) != EOCD_SIG) {
+                --eocd;
+            }
+            if (eocd < 0) {
+                return Collections.emptyMap();
+            }
+            final int total = tail.getShort(eocd + 10) & 0xffff;
+            final long cenSize = tail.getInt(eocd + 12) & 0xffffffffL;
+            final long cenOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+            if (total == 0xffff || cenSize == 0xffffffffL || cenOffset == 0xffffffffL || cenOffset + cenSize > size) {
+                return Collections.emptyMap();
+            }
+            final ByteBuffer cen = read(channel, cenOffset, (int) cenSize);
+            Map<String, Integer> modes = Collections.emptyMap();
+            int pos = 0;
+            for (int i = 0; i < total && pos + CEN_LEN <= cenSize; ++i) {
+                if (cen.getInt(pos) != CEN_SIG) {
+                    break;
+                }
+                final int madeBy = cen.getShort(pos + 4) & 0xffff;
+                final int nameLen = cen.getShort(pos + 28) & 0xffff;
+                final int extraLen = cen.getShort(pos + 30) & 0xffff;
+                final int commentLen = cen.getShort(pos + 32) & 0xffff;
+                final int mode = cen.getInt(pos + 38) >>> 16 & 0777;
+                if (madeBy >> 8 == UNIX_HOST && mode != 0) {
+                    final byte[] name = new byte[nameLen];
+                    cen.position(pos + CEN_LEN);
+                    cen.get(name);
+                    if (modes.isEmpty()) {
+                        modes = new HashMap<>();
+                    }
+                    modes.put(new String(name, StandardCharsets.UTF_8), mode);
+                }
+                pos += CEN_LEN + nameLen + extraLen + commentLen;
+            }
+            return modes;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            synchronized (this) {
+                if (zipfs != null) {
+                    zipfs.close();
+                    zipfs = null;
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
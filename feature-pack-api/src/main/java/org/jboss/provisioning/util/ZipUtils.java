@@ -32,6 +32,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  *
@@ -42,14 +43,33 @@ public class ZipUtils {
     private static final String JAR_FILE_PREFIX = "jar:file:";
     private static final Map<String, String> CREATE_ENV = Collections.singletonMap("create", "true");
 
+    /**
+     * Opens a file-system view of the zip archive. The caller is responsible
+     * for closing the returned file-system.
+     *
+     * @param zipFile  zip archive
+     * @return  file-system backed by the archive
+     * @throws IOException  in case the archive could not be opened
+     */
+    public static FileSystem newFileSystem(Path zipFile) throws IOException {
+        return FileSystems.newFileSystem(zipFile, null);
+    }
+
     public static void unzip(Path zipFile, Path targetDir) throws IOException {
-        if(!Files.exists(targetDir)) {
-            Files.createDirectories(targetDir);
-        }
-        try (FileSystem zipfs = FileSystems.newFileSystem(zipFile, null)) {
-            for(Path zipRoot : zipfs.getRootDirectories()) {
-                copyFromZip(zipRoot, targetDir);
-            }
+        unzip(zipFile, targetDir, null);
+    }
+
+    /**
+     * Extracts the archive inflating the entries on the executor.
+     *
+     * @param zipFile  zip archive
+     * @param targetDir  target directory
+     * @param executor  executor to inflate the entries in parallel or null to extract in the calling thread
+     * @throws IOException  in case of a failure
+     */
+    public static void unzip(Path zipFile, Path targetDir, ExecutorService executor) throws IOException {
+        try (ZipArchive archive = ZipArchive.open(zipFile)) {
+            archive.extract("", targetDir, null, executor);
         }
     }
 
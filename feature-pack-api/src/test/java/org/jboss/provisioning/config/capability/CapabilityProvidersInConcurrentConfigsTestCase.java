@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.config.capability;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.FeatureConfig;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.plugin.ProvisionedConfigHandler;
+import org.jboss.provisioning.repomanager.FeaturePackBuilder;
+import org.jboss.provisioning.runtime.ProvisioningRuntime;
+import org.jboss.provisioning.runtime.ProvisioningRuntimeBuilder;
+import org.jboss.provisioning.spec.ConfigSpec;
+import org.jboss.provisioning.spec.FeatureParameterSpec;
+import org.jboss.provisioning.spec.FeatureSpec;
+import org.jboss.provisioning.state.ProvisionedConfig;
+import org.jboss.provisioning.state.ProvisionedFeature;
+import org.jboss.provisioning.test.FeaturePackRepoTestBase;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The feature specs are shared by the configs. A capability provided in one config
+ * must not be seen as provided in another one, whether the configs are built
+ * one after the other or concurrently.
+ *
+ * @author agent
+ */
+public class CapabilityProvidersInConcurrentConfigsTestCase extends FeaturePackRepoTestBase {
+
+    private static final Gav FP_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final int CONFIGS = 4;
+    private static final int FILLERS = 2000;
+
+    @Before
+    public void setupRepo() throws Exception {
+        final FeaturePackBuilder fp = getRepoManager().installer()
+                .newFeaturePack(FP_GAV)
+                .addSpec(FeatureSpec.builder("specP")
+                        .providesCapability("cap.a")
+                        .addParam(FeatureParameterSpec.createId("p"))
+                        .build())
+                .addSpec(FeatureSpec.builder("specF")
+                        .addParam(FeatureParameterSpec.createId("f"))
+                        .build())
+                .addSpec(FeatureSpec.builder("specR")
+                        .requiresCapability("cap.a")
+                        .addParam(FeatureParameterSpec.createId("r"))
+                        .build());
+        for(int i = 1; i <= CONFIGS; ++i) {
+            // the fillers keep the configs being ordered long enough to overlap.
+            // the requiring feature is added before the provider, so the provider is ordered
+            // first only if the capability is not seen as provided by another config.
+            final ConfigSpec.Builder config = ConfigSpec.builder().setName("config" + i);
+            for(int j = 0; j < FILLERS; ++j) {
+                config.addFeature(new FeatureConfig("specF").setParam("f", "f" + j));
+            }
+            fp.addConfig(config
+                    .addFeature(new FeatureConfig("specR").setParam("r", "r" + i))
+                    .addFeature(new FeatureConfig("specP").setParam("p", "p" + i))
+                    .build());
+        }
+        fp.getInstaller().install();
+    }
+
+    @Test
+    public void testSequentialConfigBuild() throws Exception {
+        assertProviderOrderedFirst(1);
+    }
+
+    @Test
+    public void testConcurrentConfigBuild() throws Exception {
+        assertProviderOrderedFirst(CONFIGS);
+    }
+
+    private void assertProviderOrderedFirst(int threads) throws Exception {
+        try (ProvisioningRuntime runtime = ProvisioningRuntimeBuilder.newInstance()
+                .setArtifactResolver(getRepoManager())
+                .setConfig(ProvisioningConfig.builder().addFeaturePack(FeaturePackConfig.forGav(FP_GAV)).build())
+                .setInstallDir(installHome)
+                .setConfigBuildThreads(threads)
+                .build()) {
+            final List<ProvisionedConfig> configs = runtime.getConfigs();
+            Assert.assertEquals(CONFIGS, configs.size());
+            for(ProvisionedConfig config : configs) {
+                final List<String> specs = new ArrayList<>(2);
+                config.handle(new ProvisionedConfigHandler() {
+                    @Override
+                    public void nextFeature(ProvisionedFeature feature) throws ProvisioningException {
+                        if(!feature.getSpecId().getName().equals("specF")) {
+                            specs.add(feature.getSpecId().getName());
+                        }
+                    }
+                });
+                Assert.assertEquals(config.getName(), Arrays.asList("specP", "specR"), specs);
+            }
+        }
+    }
+}
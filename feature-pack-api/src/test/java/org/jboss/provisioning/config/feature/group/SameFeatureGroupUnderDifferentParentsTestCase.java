@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.config.feature.group;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.FeatureConfig;
+import org.jboss.provisioning.config.FeatureGroupConfig;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.runtime.ResolvedFeatureId;
+import org.jboss.provisioning.spec.ConfigSpec;
+import org.jboss.provisioning.spec.FeatureGroupSpec;
+import org.jboss.provisioning.spec.FeatureParameterSpec;
+import org.jboss.provisioning.spec.FeatureReferenceSpec;
+import org.jboss.provisioning.spec.FeatureSpec;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.xml.ProvisionedConfigBuilder;
+import org.jboss.provisioning.xml.ProvisionedFeatureBuilder;
+
+/**
+ * The same feature group is included under different parent features
+ * in the same and in different configs.
+ *
+ * @author agent
+ */
+public class SameFeatureGroupUnderDifferentParentsTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final Gav FP_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        repoManager.installer()
+        .newFeaturePack(FP_GAV)
+            .addSpec(FeatureSpec.builder("specA")
+                    .addParam(FeatureParameterSpec.createId("a"))
+                    .build())
+            .addSpec(FeatureSpec.builder("specC")
+                    .addFeatureRef(FeatureReferenceSpec.create("specA"))
+                    .addParam(FeatureParameterSpec.createId("a"))
+                    .addParam(FeatureParameterSpec.createId("c"))
+                    .build())
+            .addSpec(FeatureSpec.builder("specD")
+                    .addFeatureRef(FeatureReferenceSpec.create("specC"))
+                    .addParam(FeatureParameterSpec.createId("a"))
+                    .addParam(FeatureParameterSpec.createId("c"))
+                    .addParam(FeatureParameterSpec.createId("d"))
+                    .build())
+            .addFeatureGroup(FeatureGroupSpec.builder("fg1")
+                    .addFeature(new FeatureConfig("specC")
+                            .setParam("c", "c1")
+                            .addConfigItem(new FeatureConfig("specD")
+                                    .setParam("d", "d1")))
+                    .build())
+            .addConfig(ConfigSpec.builder().setName("config1")
+                    .addFeature(new FeatureConfig("specA")
+                            .setParam("a", "a1")
+                            .addConfigItem(FeatureGroupConfig.forGroup("fg1")))
+                    .addFeature(new FeatureConfig("specA")
+                            .setParam("a", "a2")
+                            .addConfigItem(FeatureGroupConfig.forGroup("fg1")))
+                    .build())
+            .addConfig(ConfigSpec.builder().setName("config2")
+                    .addFeature(new FeatureConfig("specA")
+                            .setParam("a", "a3")
+                            .addConfigItem(FeatureGroupConfig.forGroup("fg1")))
+                    .build())
+            .getInstaller()
+        .install();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() {
+        return FeaturePackConfig.forGav(FP_GAV);
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() throws ProvisioningException {
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.forGav(FP_GAV))
+                .addConfig(ProvisionedConfigBuilder.builder()
+                        .setName("config1")
+                        .addFeature(ProvisionedFeatureBuilder.builder(ResolvedFeatureId.create(FP_GAV, "specA", "a", "a1")).build())
+                        .addFeature(ProvisionedFeatureBuilder.builder(ResolvedFeatureId.create(FP_GAV, "specA", "a", "a2")).build())
+                        .addFeature(ProvisionedFeatureBuilder.builder(ResolvedFeatureId.builder(FP_GAV, "specC").setParam("a", "a1").setParam("c", "c1").build()).build())
+                        .addFeature(ProvisionedFeatureBuilder.builder(ResolvedFeatureId.builder(FP_GAV, "specC").setParam("a", "a2").setParam("c", "c1").build()).build())
+                        .addFeature(ProvisionedFeatureBuilder.builder(ResolvedFeatureId.builder(FP_GAV, "specD").setParam("a", "a1").setParam("c", "c1").setParam("d", "d1").build()).build())
+                        .addFeature(ProvisionedFeatureBuilder.builder(ResolvedFeatureId.builder(FP_GAV, "specD").setParam("a", "a2").setParam("c", "c1").setParam("d", "d1").build()).build())
+                        .build())
+                .addConfig(ProvisionedConfigBuilder.builder()
+                        .setName("config2")
+                        .addFeature(ProvisionedFeatureBuilder.builder(ResolvedFeatureId.create(FP_GAV, "specA", "a", "a3")).build())
+                        .addFeature(ProvisionedFeatureBuilder.builder(ResolvedFeatureId.builder(FP_GAV, "specC").setParam("a", "a3").setParam("c", "c1").build()).build())
+                        .addFeature(ProvisionedFeatureBuilder.builder(ResolvedFeatureId.builder(FP_GAV, "specD").setParam("a", "a3").setParam("c", "c1").setParam("d", "d1").build()).build())
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.diff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import difflib.DiffUtils;
+import difflib.Patch;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.jboss.provisioning.test.util.TestUtils;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The unified diff of a pair of files has to patch the first file into the second one.
+ *
+ * @author agent
+ */
+public class FileSystemDiffTest {
+
+    private Path workDir;
+
+    @Before
+    public void before() throws Exception {
+        workDir = TestUtils.mkRandomTmpDir();
+    }
+
+    @After
+    public void after() throws Exception {
+        IoUtils.recursiveDelete(workDir);
+    }
+
+    @Test
+    public void testSuffixStartingInTheMiddleOfLongerLine() throws Exception {
+        assertPatched("x\nab\n", "x\nzab\n");
+        assertPatched("x\nzab\n", "x\nab\n");
+    }
+
+    @Test
+    public void testSuffixStartingWithLongerLine() throws Exception {
+        assertPatched("x\nab\n", "x\nz\nab\n");
+        assertPatched("x\nz\nab\n", "x\nab\n");
+        assertPatched("ab\n", "z\nab\n");
+        assertPatched("z\nab\n", "ab\n");
+    }
+
+    @Test
+    public void testSuffixWithoutLineEnds() throws Exception {
+        assertPatched("ab", "b");
+        assertPatched("b", "ab");
+    }
+
+    @Test
+    public void testPrefix() throws Exception {
+        assertPatched("a\nb\n", "a\nb\nc\n");
+        assertPatched("a\nb\nc\n", "a\nb\n");
+        assertPatched("abc\n", "abd\n");
+        assertPatched("abc\nd\n", "ab\nd\n");
+    }
+
+    @Test
+    public void testNoTrailingLineEnd() throws Exception {
+        assertPatched("a\nb", "a\nc");
+        assertPatched("a\nb", "a\nb\nc");
+        assertPatched("a\nb\nc", "a\nc");
+    }
+
+    @Test
+    public void testEqualSize() throws Exception {
+        assertPatched("a\nb\nc\n", "a\nx\nc\n");
+        assertPatched("ab\ncd\n", "cd\nab\n");
+        assertPatched("a\nb\n", "b\na\n");
+    }
+
+    @Test
+    public void testChangesAcrossBlocks() throws Exception {
+        final StringBuilder buf = new StringBuilder();
+        for(int i = 0; i < 3000; ++i) {
+            buf.append("line ").append(i).append('\n');
+        }
+        final String original = buf.toString();
+        final String revised = original.replace("line 1500\n", "line 1500 changed\n").replace("line 2999\n", "");
+        assertPatched(revised, original);
+        assertPatched(original, revised);
+    }
+
+    @Test
+    public void testBinary() throws Exception {
+        assertNull(FileSystemDiff.extractUnifiedDiff(write("revised", "a\u0000b"), write("original", "a\nb")));
+    }
+
+    private void assertPatched(String revised, String original) throws Exception {
+        final Path revisedFile = write("revised", revised);
+        final Path originalFile = write("original", original);
+        final List<String> diff = FileSystemDiff.extractUnifiedDiff(revisedFile, originalFile);
+        final Patch<String> patch = DiffUtils.parseUnifiedDiff(diff);
+        if(!revised.equals(original)) {
+            assertTrue(!patch.getDeltas().isEmpty());
+        }
+        assertEquals(Files.readAllLines(originalFile), patch.applyTo(Files.readAllLines(revisedFile)));
+    }
+
+    private Path write(String name, String content) throws Exception {
+        final Path file = workDir.resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
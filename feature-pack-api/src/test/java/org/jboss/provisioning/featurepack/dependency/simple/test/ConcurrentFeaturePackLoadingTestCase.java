@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.featurepack.dependency.simple.test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactException;
+import org.jboss.provisioning.ArtifactRepositoryManager;
+import org.jboss.provisioning.MessageWriter;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.runtime.ProvisioningRuntime;
+import org.jboss.provisioning.runtime.ProvisioningRuntimeBuilder;
+import org.jboss.provisioning.test.FeaturePackRepoTestBase;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The feature-packs are loaded concurrently but the artifact resolver,
+ * which is not required to be thread-safe, is expected to be called by one thread at a time.
+ *
+ * @author agent
+ */
+public class ConcurrentFeaturePackLoadingTestCase extends FeaturePackRepoTestBase {
+
+    private static final ArtifactCoords.Gav FP1_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final ArtifactCoords.Gav FP2_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp2", "1.0.0.Final");
+    private static final ArtifactCoords.Gav FP3_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp3", "1.0.0.Final");
+    private static final ArtifactCoords.Gav FP4_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp4", "1.0.0.Final");
+
+    private static class SingleThreadedResolver implements ArtifactRepositoryManager {
+
+        private final ArtifactRepositoryManager delegate;
+        private final AtomicInteger active = new AtomicInteger();
+        private volatile boolean concurrent;
+        private final Set<ArtifactCoords> resolved = Collections.synchronizedSet(new HashSet<>());
+        private final ArtifactCoords failOnce;
+
+        SingleThreadedResolver(ArtifactRepositoryManager delegate, ArtifactCoords failOnce) {
+            this.delegate = delegate;
+            this.failOnce = failOnce;
+        }
+
+        @Override
+        public Path resolve(ArtifactCoords coords) throws ArtifactException {
+            if(active.incrementAndGet() > 1) {
+                concurrent = true;
+            }
+            try {
+                if(!resolved.add(coords) || !coords.equals(failOnce)) {
+                    Thread.sleep(20);
+                } else {
+                    throw new ArtifactException("Failed to resolve " + coords);
+                }
+                return delegate.resolve(coords);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ArtifactException("Interrupted", e);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void install(ArtifactCoords coords, Path artifact) throws ArtifactException {
+            delegate.install(coords, artifact);
+        }
+
+        @Override
+        public void deploy(ArtifactCoords coords, Path artifact) throws ArtifactException {
+            delegate.deploy(coords, artifact);
+        }
+    }
+
+    private static class RecordingMessageWriter implements MessageWriter {
+
+        final List<String> verbose = Collections.synchronizedList(new ArrayList<>());
+        final List<Throwable> causes = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void verbose(Throwable cause, CharSequence message) {
+            verbose.add(message.toString());
+            if(cause != null) {
+                causes.add(cause);
+            }
+        }
+
+        @Override
+        public void print(Throwable cause, CharSequence message) {
+        }
+
+        @Override
+        public void error(Throwable cause, CharSequence message) {
+        }
+
+        @Override
+        public boolean isVerboseEnabled() {
+            return true;
+        }
+
+        @Override
+        public void close() throws Exception {
+        }
+    }
+
+    @Before
+    public void setupRepo() throws Exception {
+        getRepoManager().installer()
+            .newFeaturePack(FP1_GAV)
+                .addDependency(FP2_GAV)
+                .addDependency(FP3_GAV)
+                .addDependency(FP4_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp1/p1.txt", "fp1")
+                    .getFeaturePack()
+                .getInstaller()
+            .newFeaturePack(FP2_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp2/p1.txt", "fp2")
+                    .getFeaturePack()
+                .getInstaller()
+            .newFeaturePack(FP3_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp3/p1.txt", "fp3")
+                    .getFeaturePack()
+                .getInstaller()
+            .newFeaturePack(FP4_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp4/p1.txt", "fp4")
+                    .getFeaturePack()
+                .getInstaller()
+            .install();
+    }
+
+    @Test
+    public void testResolverCalledByOneThreadAtATime() throws Exception {
+        final SingleThreadedResolver resolver = new SingleThreadedResolver(getRepoManager(), null);
+        try (ProvisioningRuntime runtime = newRuntime(resolver, new RecordingMessageWriter())) {
+            Assert.assertEquals(4, runtime.getFeaturePacks().size());
+        }
+        Assert.assertFalse(resolver.concurrent);
+        final Set<ArtifactCoords> expected = new HashSet<>();
+        expected.add(FP1_GAV.toArtifactCoords());
+        expected.add(FP2_GAV.toArtifactCoords());
+        expected.add(FP3_GAV.toArtifactCoords());
+        expected.add(FP4_GAV.toArtifactCoords());
+        Assert.assertEquals(expected, resolver.resolved);
+    }
+
+    @Test
+    public void testPrefetchFailureIsLogged() throws Exception {
+        final RecordingMessageWriter messageWriter = new RecordingMessageWriter();
+        // the feature-pack that failed to be prefetched is loaded again when it is needed
+        try (ProvisioningRuntime runtime = newRuntime(new SingleThreadedResolver(getRepoManager(), FP3_GAV.toArtifactCoords()), messageWriter)) {
+            Assert.assertEquals(4, runtime.getFeaturePacks().size());
+        }
+        Assert.assertTrue(messageWriter.verbose.toString(), messageWriter.verbose.contains("Failed to prefetch feature-pack " + FP3_GAV));
+        Assert.assertFalse(messageWriter.causes.isEmpty());
+    }
+
+    private ProvisioningRuntime newRuntime(ArtifactRepositoryManager resolver, MessageWriter messageWriter) throws ProvisioningException {
+        return ProvisioningRuntimeBuilder.newInstance(messageWriter)
+                .setArtifactResolver(resolver)
+                .setConfig(ProvisioningConfig.builder().addFeaturePack(FeaturePackConfig.forGav(FP1_GAV)).build())
+                .setInstallDir(installHome)
+                .setFeaturePackLoadThreads(4)
+                .build();
+    }
+}
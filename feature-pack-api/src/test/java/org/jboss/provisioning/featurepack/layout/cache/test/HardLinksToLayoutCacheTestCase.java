@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.featurepack.layout.cache.test;
+
+import java.nio.file.Path;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.Errors;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.layout.FeaturePackLayoutCache;
+import org.jboss.provisioning.runtime.ProvisioningRuntime;
+import org.jboss.provisioning.runtime.ProvisioningRuntimeBuilder;
+import org.jboss.provisioning.test.FeaturePackRepoTestBase;
+import org.jboss.provisioning.test.util.TestUtils;
+import org.jboss.provisioning.util.ContentMaterializer;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The cached layouts must not be hard linked into the installation.
+ *
+ * @author agent
+ */
+public class HardLinksToLayoutCacheTestCase extends FeaturePackRepoTestBase {
+
+    private static final ArtifactCoords.Gav FP_GAV = ArtifactCoords.newGav("org.pm.test", "fp-install", "1.0.0.Beta1");
+
+    private Path cacheDir;
+
+    @Override
+    protected void doBefore() throws Exception {
+        super.doBefore();
+        cacheDir = TestUtils.mkRandomTmpDir();
+        getRepoManager().installer()
+        .newFeaturePack(FP_GAV)
+            .newPackage("a", true)
+                .writeContent("a.txt", "a")
+                .getFeaturePack()
+            .getInstaller()
+        .install();
+    }
+
+    @Override
+    protected void doAfter() throws Exception {
+        IoUtils.recursiveDelete(cacheDir);
+        super.doAfter();
+    }
+
+    @Test
+    public void testHardLinksRejected() throws Exception {
+        try (ProvisioningRuntime runtime = newRuntimeBuilder()
+                .setContentMaterializer(ContentMaterializer.HARDLINK)
+                .build()) {
+            Assert.fail("Hard links to the cached layouts were accepted");
+        } catch(ProvisioningException e) {
+            Assert.assertEquals(Errors.hardLinksToLayoutCache(), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCopiedByDefault() throws Exception {
+        try (ProvisioningRuntime runtime = newRuntimeBuilder().build()) {
+            Assert.assertSame(ContentMaterializer.COPY, runtime.getContentMaterializer());
+        }
+    }
+
+    private ProvisioningRuntimeBuilder newRuntimeBuilder() throws ProvisioningException {
+        return ProvisioningRuntimeBuilder.newInstance()
+                .setArtifactResolver(getRepoManager())
+                .setConfig(ProvisioningConfig.builder().addFeaturePack(FeaturePackConfig.forGav(FP_GAV)).build())
+                .setInstallDir(installHome)
+                .setLayoutCache(FeaturePackLayoutCache.newInstance(cacheDir, Long.MAX_VALUE));
+    }
+}
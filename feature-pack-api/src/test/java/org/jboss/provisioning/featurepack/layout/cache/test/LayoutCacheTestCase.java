@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.featurepack.layout.cache.test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.ProvisioningManager;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.layout.FeaturePackLayoutCache;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.test.util.TestUtils;
+import org.jboss.provisioning.test.util.fs.state.DirState;
+import org.jboss.provisioning.test.util.fs.state.DirState.DirBuilder;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.Assert;
+
+/**
+ *
+ * @author agent
+ */
+public class LayoutCacheTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final ArtifactCoords.Gav FP_GAV = ArtifactCoords.newGav("org.pm.test", "fp-install", "1.0.0.Beta1");
+
+    private Path cacheDir;
+
+    @Override
+    protected void doBefore() throws Exception {
+        super.doBefore();
+        cacheDir = TestUtils.mkRandomTmpDir();
+    }
+
+    @Override
+    protected void doAfter() throws Exception {
+        IoUtils.recursiveDelete(cacheDir);
+        super.doAfter();
+    }
+
+    @Override
+    protected ProvisioningManager getPm() {
+        return ProvisioningManager.builder()
+                .setArtifactResolver(getRepoManager())
+                .setInstallationHome(installHome)
+                .setLayoutCache(FeaturePackLayoutCache.newInstance(cacheDir, Long.MAX_VALUE))
+                .build();
+    }
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        repoManager.installer()
+        .newFeaturePack(FP_GAV)
+            .newPackage("a", true)
+                .writeContent("a.txt", "a")
+                .getFeaturePack()
+            .newPackage("b")
+                .writeContent("b.txt", "b")
+                .getFeaturePack()
+            .getInstaller()
+        .install();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() throws ProvisioningDescriptionException {
+        return FeaturePackConfig.forGav(FP_GAV);
+    }
+
+    @Override
+    protected void testPm(ProvisioningManager pm) throws ProvisioningException {
+        super.testPm(pm);
+        Assert.assertEquals(1, countEntries());
+        // the second run is served from the cache
+        pm.provision(ProvisioningConfig.builder().addFeaturePack(featurePackConfig()).build());
+        Assert.assertEquals(1, countEntries());
+    }
+
+    private int countEntries() throws ProvisioningException {
+        int entries = 0;
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir)) {
+            for(Path p : stream) {
+                if(Files.isDirectory(p)) {
+                    ++entries;
+                    Assert.assertTrue(Files.exists(p.resolve("layout").resolve("packages").resolve("b")));
+                }
+            }
+        } catch (IOException e) {
+            throw new ProvisioningException(e);
+        }
+        return entries;
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() throws ProvisioningException {
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP_GAV)
+                        .addPackage("a")
+                        .build())
+                .build();
+    }
+
+    @Override
+    protected DirState provisionedHomeDir(DirBuilder builder) {
+        return builder
+                .addFile("a.txt", "a")
+                .build();
+    }
+}
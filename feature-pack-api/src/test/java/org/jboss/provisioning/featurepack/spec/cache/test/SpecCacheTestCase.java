@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.featurepack.spec.cache.test;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.ProvisioningManager;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.runtime.SpecCache;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.test.util.fs.state.DirState;
+import org.jboss.provisioning.test.util.fs.state.DirState.DirBuilder;
+import org.junit.Assert;
+
+/**
+ *
+ * @author agent
+ */
+public class SpecCacheTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final ArtifactCoords.Gav FP_GAV = ArtifactCoords.newGav("org.pm.test", "fp-install", "1.0.0.Beta1");
+
+    private final SpecCache specCache = SpecCache.newInstance(100);
+
+    @Override
+    protected ProvisioningManager getPm() {
+        return ProvisioningManager.builder()
+                .setArtifactResolver(getRepoManager())
+                .setInstallationHome(installHome)
+                .setSpecCache(specCache)
+                .build();
+    }
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        repoManager.installer()
+        .newFeaturePack(FP_GAV)
+            .newPackage("a", true)
+                .addDependency("b")
+                .writeContent("a.txt", "a")
+                .getFeaturePack()
+            .newPackage("b")
+                .writeContent("b.txt", "b")
+                .getFeaturePack()
+            .getInstaller()
+        .install();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() throws ProvisioningDescriptionException {
+        return FeaturePackConfig.forGav(FP_GAV);
+    }
+
+    @Override
+    protected void testPm(ProvisioningManager pm) throws ProvisioningException {
+        super.testPm(pm);
+        Assert.assertEquals(2, specCache.size());
+        Assert.assertEquals(0, specCache.getHits());
+        Assert.assertEquals(2, specCache.getMisses());
+        // the second run is served from the cache
+        pm.provision(ProvisioningConfig.builder().addFeaturePack(featurePackConfig()).build());
+        Assert.assertEquals(2, specCache.size());
+        Assert.assertEquals(2, specCache.getHits());
+        Assert.assertEquals(2, specCache.getMisses());
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() throws ProvisioningException {
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP_GAV)
+                        .addPackage("a")
+                        .addPackage("b")
+                        .build())
+                .build();
+    }
+
+    @Override
+    protected DirState provisionedHomeDir(DirBuilder builder) {
+        return builder
+                .addFile("a.txt", "a")
+                .addFile("b.txt", "b")
+                .build();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.installation.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.ProvisioningManager;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.plugin.ProvisioningPlugin;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.runtime.ProvisioningRuntime;
+import org.jboss.provisioning.state.ContentManifest;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.test.util.fs.state.DirState;
+import org.jboss.provisioning.test.util.fs.state.DirState.DirBuilder;
+import org.jboss.provisioning.util.HashUtils;
+import org.jboss.provisioning.util.PathsUtils;
+import org.junit.Assert;
+
+/**
+ * The hashes of the package content are recorded when the content is copied,
+ * the files written by the plug-ins are expected to be hashed after they have been written.
+ *
+ * @author agent
+ */
+public class ContentManifestTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final ArtifactCoords.Gav FP1_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+
+    public static class RewritingPlugin implements ProvisioningPlugin {
+        @Override
+        public void postInstall(ProvisioningRuntime runtime) throws ProvisioningException {
+            final Path fp1Dir = runtime.getStagedDir().resolve("fp1");
+            try {
+                // the package content may be hard linked, so it is replaced instead of being modified in place
+                Files.delete(fp1Dir.resolve("p1.txt"));
+                Files.write(fp1Dir.resolve("p1.txt"), "p1 rewritten".getBytes());
+                Files.write(fp1Dir.resolve("generated.txt"), "generated".getBytes());
+            } catch (IOException e) {
+                throw new ProvisioningException("Failed to write to " + fp1Dir, e);
+            }
+        }
+    }
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        repoManager.installer()
+            .newFeaturePack(FP1_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp1/p1.txt", "p1")
+                    .getFeaturePack()
+                .newPackage("p2", true)
+                    .writeContent("fp1/p2.txt", "p2")
+                    .getFeaturePack()
+                .addPlugin(RewritingPlugin.class)
+                .getInstaller()
+            .install();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() throws ProvisioningDescriptionException {
+        return FeaturePackConfig.forGav(FP1_GAV);
+    }
+
+    @Override
+    protected void testPm(ProvisioningManager pm) throws ProvisioningException {
+        super.testPm(pm);
+
+        final Path manifestFile = PathsUtils.getContentManifest(installHome);
+        try (Stream<Path> files = Files.walk(installHome)) {
+            final Map<String, String> expected = new HashMap<>();
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file) && !file.equals(manifestFile)) {
+                    expected.put(ContentManifest.toEntryPath(installHome.relativize(file)), HashUtils.hashFile(file));
+                }
+            }
+            final Map<String, String> actual = new HashMap<>();
+            for (ContentManifest.Entry entry : ContentManifest.read(manifestFile).getEntries()) {
+                actual.put(entry.getPath(), entry.getHash());
+            }
+            Assert.assertEquals(expected, actual);
+        } catch (IOException e) {
+            throw new ProvisioningException(e);
+        }
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() {
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP1_GAV)
+                        .addPackage("p1")
+                        .addPackage("p2")
+                        .build())
+                .build();
+    }
+
+    @Override
+    protected DirState provisionedHomeDir(DirBuilder builder) {
+        return builder
+                .addFile("fp1/p1.txt", "p1 rewritten")
+                .addFile("fp1/p2.txt", "p2")
+                .addFile("fp1/generated.txt", "generated")
+                .build();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.installation.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.ProvisioningManager;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.test.util.fs.state.DirState;
+import org.jboss.provisioning.test.util.fs.state.DirState.DirBuilder;
+import org.jboss.provisioning.util.PathsUtils;
+import org.junit.Assert;
+
+/**
+ *
+ * @author agent
+ */
+public class IncrementalInstallTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final ArtifactCoords.Gav FP1_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final ArtifactCoords.Gav FP2_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp2", "1.0.0.Final");
+
+    private static final FileTime UNCHANGED_TIME = FileTime.fromMillis(946684800000L);
+
+    @Override
+    protected ProvisioningManager getPm() {
+        return ProvisioningManager.builder()
+                .setArtifactResolver(getRepoManager())
+                .setInstallationHome(installHome)
+                .setIncremental(true)
+                .build();
+    }
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        repoManager.installer()
+            .newFeaturePack(FP1_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp1/p1.txt", "p1")
+                    .getFeaturePack()
+                .newPackage("p2", true)
+                    .writeContent("fp1/p2.txt", "p2")
+                    .getFeaturePack()
+                .getInstaller()
+            .newFeaturePack(FP2_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp2/p1.txt", "p1")
+                    .getFeaturePack()
+                .getInstaller()
+            .install();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() throws ProvisioningDescriptionException {
+        return FeaturePackConfig.forGav(FP2_GAV);
+    }
+
+    @Override
+    protected void testPm(ProvisioningManager pm) throws ProvisioningException {
+        pm.install(FeaturePackConfig.forGav(FP1_GAV));
+        Assert.assertTrue(Files.exists(PathsUtils.getContentManifest(installHome)));
+
+        final Path unchanged = installHome.resolve("fp1").resolve("p1.txt");
+        try {
+            Files.setLastModifiedTime(unchanged, UNCHANGED_TIME);
+            Files.write(installHome.resolve("fp1").resolve("p2.txt"), "modified".getBytes());
+            Files.write(installHome.resolve("added.txt"), "added".getBytes());
+        } catch (IOException e) {
+            throw new ProvisioningException(e);
+        }
+
+        super.testPm(pm);
+
+        try {
+            // the unchanged file has not been rewritten
+            Assert.assertEquals(UNCHANGED_TIME, Files.getLastModifiedTime(unchanged));
+        } catch (IOException e) {
+            throw new ProvisioningException(e);
+        }
+    }
+
+    @Override
+    protected ProvisioningConfig provisionedConfig() throws ProvisioningDescriptionException {
+        return ProvisioningConfig.builder()
+                .addFeaturePack(FeaturePackConfig.forGav(FP1_GAV))
+                .addFeaturePack(FeaturePackConfig.forGav(FP2_GAV))
+                .build();
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() {
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP1_GAV)
+                        .addPackage("p1")
+                        .addPackage("p2")
+                        .build())
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP2_GAV)
+                        .addPackage("p1")
+                        .build())
+                .build();
+    }
+
+    @Override
+    protected DirState provisionedHomeDir(DirBuilder builder) {
+        return builder
+                .addFile("fp1/p1.txt", "p1")
+                .addFile("fp1/p2.txt", "p2")
+                .addFile("fp2/p1.txt", "p1")
+                .build();
+    }
+}
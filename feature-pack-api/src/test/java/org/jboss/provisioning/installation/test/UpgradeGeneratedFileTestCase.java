@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.installation.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.ProvisioningManager;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.diff.FileSystemDiff;
+import org.jboss.provisioning.diff.FileSystemMerge;
+import org.jboss.provisioning.diff.Strategy;
+import org.jboss.provisioning.plugin.DiffPlugin;
+import org.jboss.provisioning.plugin.ProvisioningPlugin;
+import org.jboss.provisioning.plugin.UpgradePlugin;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.runtime.ProvisioningRuntime;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.test.util.fs.state.DirState;
+import org.jboss.provisioning.test.util.fs.state.DirState.DirBuilder;
+
+/**
+ * The file generated by a plug-in is not part of the package content, so with the content
+ * manifest its original content is not available and the user's changes can't be patched.
+ * The changes are expected to be preserved by copying the customized file.
+ *
+ * @author agent
+ */
+public class UpgradeGeneratedFileTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final ArtifactCoords.Gav FP1_100_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final ArtifactCoords.Gav FP1_200_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "2.0.0.Final");
+
+    public static class GeneratingPlugin implements ProvisioningPlugin {
+        @Override
+        public void postInstall(ProvisioningRuntime runtime) throws ProvisioningException {
+            final Path generated = runtime.getStagedDir().resolve("fp1").resolve("generated.txt");
+            try {
+                Files.createDirectories(generated.getParent());
+                Files.write(generated, "generated".getBytes());
+            } catch (IOException e) {
+                throw new ProvisioningException("Failed to write " + generated, e);
+            }
+        }
+    }
+
+    public static class MergingPlugin implements DiffPlugin, UpgradePlugin {
+        @Override
+        public void computeDiff(ProvisioningRuntime runtime, Path customizedInstallation, Path target) throws ProvisioningException {
+            runtime.setDiff(new FileSystemDiff(runtime.getMessageWriter(), runtime.getInstallDir(), customizedInstallation).diff());
+        }
+
+        @Override
+        public void upgrade(ProvisioningRuntime runtime, Path customizedInstallation) throws ProvisioningException {
+            try {
+                FileSystemMerge.Factory.getInstance(Strategy.OURS, runtime.getMessageWriter(), runtime.getInstallDir(), customizedInstallation)
+                        .executeUpdate(runtime.getDiff());
+            } catch (IOException e) {
+                throw new ProvisioningException("Failed to merge " + customizedInstallation, e);
+            }
+        }
+    }
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        repoManager.installer()
+            .newFeaturePack(FP1_100_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp1/p1.txt", "p1")
+                    .getFeaturePack()
+                .addPlugin(GeneratingPlugin.class)
+                .addService(DiffPlugin.class, MergingPlugin.class)
+                .addService(UpgradePlugin.class, MergingPlugin.class)
+                .getInstaller()
+            .newFeaturePack(FP1_200_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp1/p1.txt", "p1 upgraded")
+                    .getFeaturePack()
+                .addPlugin(GeneratingPlugin.class)
+                .getInstaller()
+            .install();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() throws ProvisioningDescriptionException {
+        return FeaturePackConfig.forGav(FP1_200_GAV);
+    }
+
+    @Override
+    protected void testPm(ProvisioningManager pm) throws ProvisioningException {
+        pm.install(FeaturePackConfig.forGav(FP1_100_GAV));
+        try {
+            Files.write(installHome.resolve("fp1").resolve("generated.txt"), "customized".getBytes());
+            pm.upgrade(FP1_200_GAV, Collections.emptyMap());
+        } catch (IOException e) {
+            throw new ProvisioningException(e);
+        }
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() {
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP1_200_GAV)
+                        .addPackage("p1")
+                        .build())
+                .build();
+    }
+
+    @Override
+    protected DirState provisionedHomeDir(DirBuilder builder) {
+        return builder
+                .addFile("fp1/p1.txt", "p1 upgraded")
+                .addFile("fp1/generated.txt", "customized")
+                .build();
+    }
+}
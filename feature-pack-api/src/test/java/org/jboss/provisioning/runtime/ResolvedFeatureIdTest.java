@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.Constants;
+import org.junit.Test;
+
+/**
+ *
+ * @author agent
+ */
+public class ResolvedFeatureIdTest {
+
+    private static final ArtifactCoords.Gav FP_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+
+    @Test
+    public void testBuilderReusedAfterBuild() throws Exception {
+        final ResolvedFeatureId.Builder builder = ResolvedFeatureId.builder(FP_GAV, "specA")
+                .setParam("a", "1")
+                .setParam("b", "2");
+        final ResolvedFeatureId id = builder.build();
+        final int hash = id.hashCode();
+
+        builder.setParam("b", "3").setParam("c", "4");
+        final ResolvedFeatureId other = builder.build();
+
+        final Map<String, String> expected = new HashMap<>();
+        expected.put("a", "1");
+        expected.put("b", "2");
+        assertEquals(expected, id.getParams());
+        assertEquals(hash, id.hashCode());
+        assertNotEquals(id, other);
+
+        builder.setParam("b", "2");
+        builder.setParam("c", Constants.PM_UNDEFINED);
+        assertEquals(id, builder.build());
+    }
+}
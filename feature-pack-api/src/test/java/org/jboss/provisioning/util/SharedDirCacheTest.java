@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author agent
+ */
+public class SharedDirCacheTest {
+
+    private Path cacheDir;
+
+    @Before
+    public void before() throws Exception {
+        cacheDir = IoUtils.createRandomTmpDir();
+    }
+
+    @After
+    public void after() throws Exception {
+        IoUtils.recursiveDelete(cacheDir);
+    }
+
+    @Test
+    public void testMountAddedEntry() throws Exception {
+        final SharedDirCache cache = new SharedDirCache(cacheDir, 10);
+        final Path entryDir = cacheDir.resolve("a");
+        assertNull(cache.mount(entryDir));
+
+        try(SharedDirCache.Mount mount = add(cache, entryDir, 1)) {
+            assertEquals(entryDir, mount.getEntryDir());
+            assertTrue(Files.exists(entryDir.resolve("content.txt")));
+        }
+        try(SharedDirCache.Mount mount = cache.mount(entryDir)) {
+            assertNotNull(mount);
+        }
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        final SharedDirCache cache = new SharedDirCache(cacheDir, 2);
+        final Path a = cacheDir.resolve("a");
+        final Path b = cacheDir.resolve("b");
+        final Path c = cacheDir.resolve("c");
+        add(cache, a, 1).close();
+        Thread.sleep(50);
+        add(cache, b, 1).close();
+        Thread.sleep(50);
+        cache.mount(a).close();
+        Thread.sleep(50);
+        add(cache, c, 1).close();
+
+        assertTrue(Files.exists(a));
+        assertFalse(Files.exists(b));
+        assertTrue(Files.exists(c));
+    }
+
+    @Test
+    public void testMountedEntryIsNotEvicted() throws Exception {
+        final SharedDirCache cache = new SharedDirCache(cacheDir, 2);
+        final Path a = cacheDir.resolve("a");
+        final Path b = cacheDir.resolve("b");
+        final Path c = cacheDir.resolve("c");
+        try(SharedDirCache.Mount mount = add(cache, a, 1)) {
+            Thread.sleep(50);
+            add(cache, b, 1).close();
+            Thread.sleep(50);
+            add(cache, c, 1).close();
+            assertTrue(Files.exists(a));
+            assertFalse(Files.exists(b));
+            assertTrue(Files.exists(c));
+        }
+    }
+
+    private static SharedDirCache.Mount add(SharedDirCache cache, Path entryDir, long weight) throws IOException {
+        final Path tmpDir = cache.newTmpPath();
+        Files.createDirectories(tmpDir);
+        Files.write(tmpDir.resolve("content.txt"), entryDir.getFileName().toString().getBytes());
+        return cache.add(tmpDir, entryDir, weight);
+    }
+}
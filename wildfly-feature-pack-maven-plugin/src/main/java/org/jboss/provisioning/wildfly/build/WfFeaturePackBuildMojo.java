@@ -64,6 +64,7 @@ import org.jboss.provisioning.config.FeaturePackConfig;
 import org.jboss.provisioning.config.IncludedConfig;
 import org.jboss.provisioning.layout.FeaturePackLayout;
 import org.jboss.provisioning.layout.FeaturePackLayoutDescriber;
+import org.jboss.provisioning.layout.FeaturePackSpecIndex;
 import org.jboss.provisioning.plugin.FpMavenErrors;
 import org.jboss.provisioning.plugin.util.MavenPluginUtil;
 import org.jboss.provisioning.plugin.wildfly.WfConstants;
@@ -316,6 +317,12 @@ public class WfFeaturePackBuildMojo extends AbstractMojo {
             }
         }
 
+        try {
+            FeaturePackSpecIndex.write(fpDir);
+        } catch (IOException e) {
+            throw new MojoExecutionException(Errors.writeFile(fpDir.resolve(FeaturePackSpecIndex.FILE_NAME)), e);
+        }
+
         try {
             repoSystem.install(repoSession, mavenPluginUtil.getInstallLayoutRequest(workDir));
         } catch (InstallationException | IOException e) {
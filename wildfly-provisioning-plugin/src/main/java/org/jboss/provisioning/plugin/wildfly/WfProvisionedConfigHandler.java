@@ -24,6 +24,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -58,6 +59,9 @@ class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
     private static final String TMP_DOMAIN_XML = "pm-tmp-domain.xml";
     private static final String TMP_HOST_XML = "pm-tmp-host.xml";
 
+    private static final String STOP_EMBEDDED_SERVER = "stop-embedded-server";
+    private static final String STOP_EMBEDDED_HOST_CONTROLLER = "stop-embedded-host-controller";
+
     private static final int OP = 0;
     private static final int WRITE_ATTR = 1;
     private static final int LIST_ADD = 2;
@@ -174,6 +178,12 @@ class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
 
     private String hostName;
     private byte lookForHost;
+    private String stopEmbedded;
+
+    /** the scripts of all the configs executed by a single CLI process */
+    private final StringBuilder scriptBuf = new StringBuilder();
+    private final List<String> scriptNames = new ArrayList<>();
+    private final Set<String> tmpConfigs = new LinkedHashSet<>();
 
     WfProvisionedConfigHandler(ProvisioningRuntime runtime) {
         this.runtime = runtime;
@@ -186,6 +196,7 @@ class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
         opList.clear();
         hostName = null;
         lookForHost = 0;
+        stopEmbedded = null;
     }
 
     private void writeOp(String op) throws ProvisioningException {
@@ -204,6 +215,7 @@ class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
 
             embedBuf.append("embed-server --admin-only=true --empty-config --remove-existing --server-config=")
             .append(logFile).append(" --jboss-home=").append(runtime.getStagedDir());
+            stopEmbedded = STOP_EMBEDDED_SERVER;
 
             paramFilter = new NameFilter() {
                 @Override
@@ -228,6 +240,7 @@ class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
                     "embed-host-controller --empty-host-config --remove-existing-host-config --empty-domain-config --remove-existing-domain-config --host-config=")
                     .append(hostConfig).append(" --domain-config=").append(logFile).append(" --jboss-home=")
                     .append(runtime.getStagedDir());
+            stopEmbedded = STOP_EMBEDDED_HOST_CONTROLLER;
 
             paramFilter = new NameFilter() {
                 @Override
@@ -254,6 +267,7 @@ class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
                 embedBuf.append(" --domain-config=").append(domainConfig);
             }
             embedBuf.append(" --jboss-home=").append(runtime.getStagedDir());
+            stopEmbedded = STOP_EMBEDDED_HOST_CONTROLLER;
 
             paramFilter = new NameFilter() {
                 @Override
@@ -441,37 +455,57 @@ class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
         if(hostName != null) {
             embedBuf.append(" --temp-host-controller-name=").append(hostName);
         }
-        final Path script = runtime.getTmpPath("cli", scriptName);
+        // the embedded server is stopped so that the next config can be generated by the same CLI process
+        scriptBuf.append(embedBuf).append(System.lineSeparator());
+        for(String op : opList) {
+            scriptBuf.append(op).append(System.lineSeparator());
+        }
+        scriptBuf.append(stopEmbedded).append(System.lineSeparator());
+        scriptNames.add(scriptName);
+        if(tmpConfig != null) {
+            tmpConfigs.add(tmpConfig);
+            tmpConfig = null;
+        }
+        reset();
+    }
+
+    /**
+     * Generates all the configs handled so far in a single CLI process, so that the JVM
+     * is started once instead of once per config.
+     *
+     * @throws ProvisioningException  in case the CLI process failed
+     */
+    void generateConfigs() throws ProvisioningException {
+        if(scriptNames.isEmpty()) {
+            return;
+        }
+        final Path script = runtime.getTmpPath("cli", "configs.cli");
         try {
             Files.createDirectories(script.getParent());
             try(BufferedWriter opsWriter = Files.newBufferedWriter(script)) {
-                opsWriter.write(embedBuf.toString());
-                opsWriter.newLine();
-                for(String op : opList) {
-                    opsWriter.write(op);
-                    opsWriter.newLine();
-                }
+                opsWriter.write(scriptBuf.toString());
             }
         } catch (IOException e) {
             throw new ProvisioningException(Errors.writeFile(script), e);
         }
 
-        messageWriter.verbose(" Generating %s configuration", script.getFileName().toString());
+        messageWriter.verbose(" Generating %s configurations", scriptNames);
         try {
             CliScriptRunner.runCliScript(runtime.getStagedDir(), script, messageWriter);
         } catch(ProvisioningException e) {
-            throw new ProvisioningException("Failed to generate " + script.getFileName() + " configuration", e);
+            throw new ProvisioningException("Failed to generate " + scriptNames + " configurations", e);
         }
-        if(tmpConfig != null) {
+        for(String tmpConfig : tmpConfigs) {
             final Path tmpPath = runtime.getStagedDir().resolve(DOMAIN).resolve("configuration").resolve(tmpConfig);
             if(Files.exists(tmpPath)) {
                 IoUtils.recursiveDelete(tmpPath);
             } else {
                 messageWriter.error("Expected path does not exist " + tmpPath);
             }
-            tmpConfig = null;
         }
-        reset();
+        scriptBuf.setLength(0);
+        scriptNames.clear();
+        tmpConfigs.clear();
     }
 
     private static Set<String> parseSet(String str) throws ProvisioningDescriptionException {
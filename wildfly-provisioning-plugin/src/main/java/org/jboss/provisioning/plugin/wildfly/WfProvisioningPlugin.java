@@ -23,8 +23,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -35,11 +33,16 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
@@ -61,7 +64,7 @@ import org.jboss.provisioning.state.ProvisionedConfig;
 import org.jboss.provisioning.util.IoUtils;
 import org.jboss.provisioning.util.PmCollections;
 import org.jboss.provisioning.util.PropertyUtils;
-import org.jboss.provisioning.util.ZipUtils;
+import org.jboss.provisioning.util.ZipArchive;
 
 /**
  *
@@ -69,6 +72,31 @@ import org.jboss.provisioning.util.ZipUtils;
  */
 public class WfProvisioningPlugin implements ProvisioningPlugin {
 
+    private static class ModuleTemplate {
+        final ArtifactCoords.Gav fp;
+        final String pkgName;
+        final Path fpModuleDir;
+        final Path template;
+        /** the number of the package file permissions collected when the template was found */
+        final int permissionSets;
+        /** module artifacts the schemas have to be extracted from */
+        final Set<Path> schemaArtifacts = new LinkedHashSet<>();
+        /** the task processing the template or null if it is processed on the calling thread */
+        ForkJoinTask<?> task;
+
+        ModuleTemplate(ArtifactCoords.Gav fp, String pkgName, Path fpModuleDir, Path template, int permissionSets) {
+            this.fp = fp;
+            this.pkgName = pkgName;
+            this.fpModuleDir = fpModuleDir;
+            this.template = template;
+            this.permissionSets = permissionSets;
+        }
+
+        ProvisioningException failed(Throwable t) {
+            return new ProvisioningException("Failed to process modules from package " + pkgName + " from feature-pack " + fp, t);
+        }
+    }
+
     private ProvisioningRuntime runtime;
     private PropertyResolver versionResolver;
     private final Pattern moduleArtifactPattern = Pattern.compile("(\\s*)((<artifact)(\\s+name=\")(\\$\\{)(.*)(\\})(\".*>)|(</artifact>))");
@@ -77,6 +105,21 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
 
     private boolean thinServer;
     private Set<String> schemaGroups = Collections.emptySet();
+    /** file permissions of each package in the order the packages are processed */
+    private List<List<FilePermission>> filePermissions = Collections.emptyList();
+    /**
+     * The paths added by the plug-in mapped to the number of the package file permissions
+     * collected at that moment, the permissions of the preceding packages are not applied to them.
+     * The package content is there before any permissions are collected and is not recorded.
+     */
+    private final Map<Path, Integer> addedPaths = new ConcurrentHashMap<>();
+    /** module templates that haven't been completed yet in the order they were found */
+    private List<ModuleTemplate> moduleTemplates = Collections.emptyList();
+    /** the last submitted template of each target module.xml among the templates that haven't been completed yet */
+    private final Map<Path, ModuleTemplate> pendingModuleXmls = new HashMap<>();
+    private ForkJoinPool modulePool;
+    private int moduleThreads = Runtime.getRuntime().availableProcessors();
+    private final Map<ArtifactCoords, Path> resolvedArtifacts = new ConcurrentHashMap<>();
 
     /* (non-Javadoc)
      * @see org.jboss.provisioning.util.plugin.ProvisioningPlugin#execute()
@@ -96,6 +139,18 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
             }
         }
 
+        final String moduleThreadsProp = System.getProperty("wfModuleThreads");
+        if(moduleThreadsProp != null) {
+            try {
+                moduleThreads = Integer.parseInt(moduleThreadsProp);
+            } catch(NumberFormatException e) {
+                throw new ProvisioningException("Failed to parse wfModuleThreads value " + moduleThreadsProp, e);
+            }
+            if(moduleThreads < 1) {
+                throw new ProvisioningException("The number of module processing threads must be positive: " + moduleThreads);
+            }
+        }
+
         this.runtime = runtime;
 
         Properties provisioningProps = new Properties();
@@ -152,8 +207,24 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
         tasksProps = new MapPropertyResolver(provisioningProps);
         versionResolver = new MapPropertyResolver(artifactVersions);
 
-        for(FeaturePackRuntime fp : runtime.getFeaturePacks()) {
-            processPackages(fp);
+        filePermissions = Collections.emptyList();
+        addedPaths.clear();
+        moduleTemplates = Collections.emptyList();
+        pendingModuleXmls.clear();
+        resolvedArtifacts.clear();
+        try {
+            for(FeaturePackRuntime fp : runtime.getFeaturePacks()) {
+                processPackages(fp);
+            }
+            completeModuleTemplates();
+        } finally {
+            if(modulePool != null) {
+                modulePool.shutdownNow();
+                modulePool = null;
+            }
+        }
+        if(!filePermissions.isEmpty() && !PropertyUtils.isWindows()) {
+            processFeaturePackFilePermissions(filePermissions, runtime.getStagedDir());
         }
 
         generateConfigs(runtime, messageWriter);
@@ -189,6 +260,7 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
                 }
                 config.handle(configHandler);
             }
+            configHandler.generateConfigs();
         }
     }
 
@@ -205,6 +277,8 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
             }
             final Path tasksXml = pmWfDir.resolve(WfConstants.TASKS_XML);
             if(Files.exists(tasksXml)) {
+                // the tasks may depend on the modules of this and the previous packages
+                completeModuleTemplates();
                 final WildFlyPackageTasks pkgTasks = WildFlyPackageTasks.load(tasksXml);
                 if(pkgTasks.hasCopyArtifacts()) {
                     copyArtifacts(pkgTasks);
@@ -215,8 +289,9 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
                 if(pkgTasks.hasMkDirs()) {
                     mkdirs(pkgTasks, this.runtime.getStagedDir());
                 }
-                if (pkgTasks.hasFilePermissions() && !PropertyUtils.isWindows()) {
-                    processFeaturePackFilePermissions(pkgTasks, this.runtime.getStagedDir());
+                if (pkgTasks.hasFilePermissions()) {
+                    // applied in a single walk once all the packages have been processed
+                    filePermissions = PmCollections.add(filePermissions, pkgTasks.getFilePermissions());
                 }
                 if(pkgTasks.hasDeletePaths()) {
                     deletePaths(pkgTasks, pmWfDir);
@@ -233,6 +308,7 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
                 public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
                     throws IOException {
                     final Path targetDir = installDir.resolve(fpModuleDir.relativize(dir));
+                    addingPath(targetDir, false);
                     try {
                         Files.copy(dir, targetDir);
                     } catch (FileAlreadyExistsException e) {
@@ -246,9 +322,11 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
                     throws IOException {
                     if(file.getFileName().toString().equals(WfConstants.MODULE_XML)) {
-                        processModuleTemplate(fpModuleDir, installDir, file);
+                        submitModuleTemplate(new ModuleTemplate(fp, pkgName, fpModuleDir, file, filePermissions.size()));
                     } else {
-                        Files.copy(file, installDir.resolve(fpModuleDir.relativize(file)), StandardCopyOption.REPLACE_EXISTING);
+                        final Path target = installDir.resolve(fpModuleDir.relativize(file));
+                        addingPath(target, true);
+                        runtime.getContentMaterializer().materializeFile(file, target);
                     }
                     return FileVisitResult.CONTINUE;
                 }
@@ -258,11 +336,117 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
         }
     }
 
-    private void processModuleTemplate(Path fpModuleDir, final Path installDir, Path moduleTemplate) throws IOException {
+    /**
+     * Submits the module template to a pool of wfModuleThreads threads, so that it is processed
+     * while the following packages are processed. With a single thread the template is processed
+     * when the templates are completed. A template targeting the same module.xml as a pending one
+     * is submitted once the pending one is processed, so the later template wins as if they were
+     * processed in place.
+     */
+    private void submitModuleTemplate(ModuleTemplate template) {
+        if(moduleThreads > 1) {
+            if(modulePool == null) {
+                modulePool = new ForkJoinPool(moduleThreads);
+            }
+            final Path installDir = runtime.getStagedDir();
+            final ModuleTemplate pending = pendingModuleXmls.put(installDir.resolve(template.fpModuleDir.relativize(template.template)), template);
+            if(pending != null) {
+                // a failure is reported when the templates are completed
+                pending.task.quietlyJoin();
+            }
+            template.task = modulePool.submit(() -> {
+                processModuleTemplate(template, installDir);
+                return null;
+            });
+        }
+        moduleTemplates = PmCollections.add(moduleTemplates, template);
+    }
+
+    /**
+     * Waits for the submitted module templates to be processed. This is called before the tasks
+     * of a package are executed and once all the packages have been processed, so the tasks see
+     * the modules of the preceding packages as if the templates were processed in place.
+     * The failures are reported in the order of the templates, the first one is thrown with the following
+     * ones added to it as suppressed. The schemas are then extracted from the module artifacts
+     * in the order of the templates.
+     */
+    private void completeModuleTemplates() throws ProvisioningException {
+        if(moduleTemplates.isEmpty()) {
+            return;
+        }
+        final List<ModuleTemplate> templates = moduleTemplates;
+        moduleTemplates = Collections.emptyList();
+        pendingModuleXmls.clear();
+        final Path installDir = runtime.getStagedDir();
+        ProvisioningException failure = null;
+        for(ModuleTemplate template : templates) {
+            try {
+                if(template.task == null) {
+                    processModuleTemplate(template, installDir);
+                } else {
+                    template.task.get();
+                }
+            } catch (IOException | RuntimeException e) {
+                throw template.failed(e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if(cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if(failure == null) {
+                    failure = template.failed(cause);
+                } else {
+                    failure.addSuppressed(template.failed(cause));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProvisioningException("Interrupted while processing modules", e);
+            }
+        }
+        if(failure != null) {
+            throw failure;
+        }
+        final Set<Path> schemaArtifacts = new LinkedHashSet<>();
+        for(ModuleTemplate template : templates) {
+            schemaArtifacts.addAll(template.schemaArtifacts);
+        }
+        for(Path moduleArtifact : schemaArtifacts) {
+            try {
+                extractSchemas(moduleArtifact);
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.readFile(moduleArtifact), e);
+            }
+        }
+    }
+
+    /**
+     * Resolves the artifact. The results are cached and the calls to the runtime
+     * are serialized since the artifact resolvers aren't required to be thread-safe.
+     */
+    private Path resolveArtifact(ArtifactCoords coords) throws ProvisioningException {
+        Path path = resolvedArtifacts.get(coords);
+        if(path != null) {
+            return path;
+        }
+        synchronized(resolvedArtifacts) {
+            path = resolvedArtifacts.get(coords);
+            if(path == null) {
+                path = runtime.resolveArtifact(coords);
+                resolvedArtifacts.put(coords, path);
+            }
+        }
+        return path;
+    }
+
+    private void processModuleTemplate(ModuleTemplate template, final Path installDir) throws IOException {
+        final Path fpModuleDir = template.fpModuleDir;
+        final Path moduleTemplate = template.template;
         final String content = IoUtils.readFile(moduleTemplate);
         final Matcher m = moduleArtifactPattern.matcher(content);
         int copiedUntil = 0;
-        try (BufferedWriter writer = Files.newBufferedWriter(installDir.resolve(fpModuleDir.relativize(moduleTemplate)))) {
+        final Path moduleXml = installDir.resolve(fpModuleDir.relativize(moduleTemplate));
+        addingPath(moduleXml, false, template.permissionSets);
+        try (BufferedWriter writer = Files.newBufferedWriter(moduleXml)) {
             while (m.find()) {
                 if (m.end(7) < 0) {
                     writer.append(content, copiedUntil, m.end(1));
@@ -297,7 +481,7 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
 
                         if (jandex) {
                             try {
-                                moduleArtifact = runtime.resolveArtifact(coords);
+                                moduleArtifact = resolveArtifact(coords);
                             } catch (ProvisioningException e) {
                                 throw new IOException(e);
                             }
@@ -308,6 +492,7 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
                                     new StringBuilder().append(artifactFileName.substring(0, lastDot))
                                     .append("-jandex")
                                     .append(artifactFileName.substring(lastDot)).toString());
+                            addingPath(target.toPath(), false, template.permissionSets);
                             try {
                                 JandexIndexer.createIndex(moduleArtifact.toFile(), new FileOutputStream(target));
                             } catch (IOException e) {
@@ -326,12 +511,13 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
                         } else {
                             if(moduleArtifact == null) {
                                 try {
-                                    moduleArtifact = runtime.resolveArtifact(coords);
+                                    moduleArtifact = resolveArtifact(coords);
                                 } catch (ProvisioningException e) {
                                     throw new IOException(e);
                                 }
                             }
                             final String artifactFileName = moduleArtifact.getFileName().toString();
+                            addingPath(targetDir.resolve(artifactFileName), true, template.permissionSets);
                             try {
                                 IoUtils.copy(moduleArtifact, targetDir.resolve(artifactFileName));
                             } catch (IOException e) {
@@ -346,12 +532,12 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
                         if (schemaGroups.contains(coords.getGroupId())) {
                             if(moduleArtifact == null) {
                                 try {
-                                    moduleArtifact = runtime.resolveArtifact(coords);
+                                    moduleArtifact = resolveArtifact(coords);
                                 } catch (ProvisioningException e) {
                                     throw new IOException(e);
                                 }
                             }
-                            extractSchemas(moduleArtifact);
+                            template.schemaArtifacts.add(moduleArtifact);
                         }
                     }
                     copiedUntil = m.end(8);
@@ -363,12 +549,13 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
 
     private void extractSchemas(Path moduleArtifact) throws IOException {
         final Path targetSchemasDir = this.runtime.getStagedDir().resolve(WfConstants.DOCS).resolve(WfConstants.SCHEMA);
+        addingPath(targetSchemasDir, false);
         Files.createDirectories(targetSchemasDir);
-        try (FileSystem jarFS = FileSystems.newFileSystem(moduleArtifact, null)) {
-            final Path schemaSrc = jarFS.getPath(WfConstants.SCHEMA);
-            if (Files.exists(schemaSrc)) {
-                ZipUtils.copyFromZip(schemaSrc.toAbsolutePath(), targetSchemasDir);
-            }
+        try (ZipArchive archive = ZipArchive.open(moduleArtifact)) {
+            archive.extract(WfConstants.SCHEMA + '/', targetSchemasDir, entry -> {
+                addingPath(targetSchemasDir.resolve(entry), false);
+                return true;
+            }, null);
         }
     }
 
@@ -377,7 +564,7 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
             final String gavString = versionResolver.resolveProperty(copyArtifact.getArtifact());
             try {
                 final ArtifactCoords coords = fromJBossModules(gavString, "jar");
-                final Path jarSrc = runtime.resolveArtifact(coords);
+                final Path jarSrc = resolveArtifact(coords);
                 String location = copyArtifact.getToLocation();
                 if (!location.isEmpty() && location.charAt(location.length() - 1) == '/') {
                     // if the to location ends with a / then it is a directory
@@ -387,10 +574,12 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
 
                 final Path jarTarget = runtime.getStagedDir().resolve(location);
 
+                addingPath(jarTarget.getParent(), false);
                 Files.createDirectories(jarTarget.getParent());
                 if (copyArtifact.isExtract()) {
                     extractArtifact(jarSrc, jarTarget, copyArtifact);
                 } else {
+                    addingPath(jarTarget, true);
                     IoUtils.copy(jarSrc, jarTarget);
                 }
                 if(schemaGroups.contains(coords.getGroupId())) {
@@ -409,45 +598,46 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
                 throw new ProvisioningException(Errors.pathDoesNotExist(src));
             }
             final Path target = copyPath.getTarget() == null ? runtime.getStagedDir() : runtime.getStagedDir().resolve(copyPath.getTarget());
-            if (copyPath.isReplaceProperties()) {
-                if (!Files.exists(target.getParent())) {
-                    try {
-                        Files.createDirectories(target.getParent());
-                    } catch (IOException e) {
-                        throw new ProvisioningException(Errors.mkdirs(target.getParent()), e);
-                    }
-                }
+            if (!Files.exists(target.getParent())) {
+                addingPath(target.getParent(), false);
                 try {
-                    Files.walkFileTree(src, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
-                            new SimpleFileVisitor<Path>() {
-                                @Override
-                                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                                    final Path targetDir = target.resolve(src.relativize(dir));
-                                    try {
-                                        Files.copy(dir, targetDir);
-                                    } catch (FileAlreadyExistsException e) {
-                                        if (!Files.isDirectory(targetDir)) {
-                                            throw e;
-                                        }
+                    Files.createDirectories(target.getParent());
+                } catch (IOException e) {
+                    throw new ProvisioningException(Errors.mkdirs(target.getParent()), e);
+                }
+            }
+            try {
+                Files.walkFileTree(src, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                        new SimpleFileVisitor<Path>() {
+                            @Override
+                            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                                final Path targetDir = target.resolve(src.relativize(dir));
+                                addingPath(targetDir, false);
+                                try {
+                                    Files.copy(dir, targetDir);
+                                } catch (FileAlreadyExistsException e) {
+                                    if (!Files.isDirectory(targetDir)) {
+                                        throw e;
                                     }
-                                    return FileVisitResult.CONTINUE;
                                 }
+                                return FileVisitResult.CONTINUE;
+                            }
 
-                                @Override
-                                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                                    PropertyReplacer.copy(file, target.resolve(src.relativize(file)), tasksProps);
-                                    return FileVisitResult.CONTINUE;
+                            @Override
+                            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                                final Path targetFile = target.resolve(src.relativize(file));
+                                if (copyPath.isReplaceProperties()) {
+                                    addingPath(targetFile, false);
+                                    PropertyReplacer.copy(file, targetFile, tasksProps);
+                                } else {
+                                    addingPath(targetFile, true);
+                                    Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING);
                                 }
-                            });
-                } catch (IOException e) {
-                    throw new ProvisioningException(Errors.copyFile(src, target), e);
-                }
-            } else {
-                try {
-                    IoUtils.copy(src, target);
-                } catch (IOException e) {
-                    throw new ProvisioningException(Errors.copyFile(src, target));
-                }
+                                return FileVisitResult.CONTINUE;
+                            }
+                        });
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.copyFile(src, target), e);
             }
         }
     }
@@ -471,51 +661,38 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
         }
     }
 
-    private static void extractArtifact(Path artifact, Path target, CopyArtifact copy) throws IOException {
-        if(!Files.exists(target)) {
-            Files.createDirectories(target);
+    private void extractArtifact(Path artifact, Path target, CopyArtifact copy) throws IOException {
+        try (ZipArchive archive = ZipArchive.open(artifact)) {
+            archive.extract("", target, entry -> {
+                if(!includeEntry(copy, entry)) {
+                    return false;
+                }
+                addingPath(target.resolve(entry), false);
+                return true;
+            }, null);
         }
-        try (FileSystem zipFS = FileSystems.newFileSystem(artifact, null)) {
-            for(Path zipRoot : zipFS.getRootDirectories()) {
-                Files.walkFileTree(zipRoot, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
-                        new SimpleFileVisitor<Path>() {
-                            @Override
-                            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-                                throws IOException {
-                                final String entry = dir.toString().substring(1);
-                                if(entry.isEmpty()) {
-                                    return FileVisitResult.CONTINUE;
-                                }
-                                if(!copy.includeFile(entry)) {
-                                    return FileVisitResult.SKIP_SUBTREE;
-                                }
-                                final Path targetDir = target.resolve(zipRoot.relativize(dir).toString());
-                                try {
-                                    Files.copy(dir, targetDir);
-                                } catch (FileAlreadyExistsException e) {
-                                     if (!Files.isDirectory(targetDir))
-                                         throw e;
-                                }
-                                return FileVisitResult.CONTINUE;
-                            }
-                            @Override
-                            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-                                throws IOException {
-                                if(copy.includeFile(file.toString().substring(1))) {
-                                    Files.copy(file, target.resolve(zipRoot.relativize(file).toString()));
-                                }
-                                return FileVisitResult.CONTINUE;
-                            }
-                        });
+    }
+
+    /**
+     * An entry is included if the entry itself and all its parent directories are included.
+     */
+    private static boolean includeEntry(CopyArtifact copy, String entry) {
+        int i = entry.indexOf('/');
+        while(i > 0) {
+            if(!copy.includeFile(entry.substring(0, i))) {
+                return false;
             }
+            i = entry.indexOf('/', i + 1);
         }
+        return copy.includeFile(entry);
     }
 
-    private static void mkdirs(final WildFlyPackageTasks tasks, Path installDir) throws ProvisioningException {
+    private void mkdirs(final WildFlyPackageTasks tasks, Path installDir) throws ProvisioningException {
         // make dirs
         for (String dirName : tasks.getMkDirs()) {
             final Path dir = installDir.resolve(dirName);
             if(!Files.exists(dir)) {
+                addingPath(dir, false);
                 try {
                     Files.createDirectories(dir);
                 } catch (IOException e) {
@@ -525,31 +702,61 @@ public class WfProvisioningPlugin implements ProvisioningPlugin {
         }
     }
 
-    private static void processFeaturePackFilePermissions(WildFlyPackageTasks tasks, Path installDir) throws ProvisioningException {
-        final List<FilePermission> filePermissions = tasks.getFilePermissions();
+    /**
+     * Records the path, unless it exists, and its parent directories which don't exist yet,
+     * before they are written. A replaced file is recorded although it exists, since the new file
+     * does not keep the permissions of the replaced one.
+     */
+    private void addingPath(Path path, boolean replace) {
+        addingPath(path, replace, filePermissions.size());
+    }
+
+    private void addingPath(Path path, boolean replace, int permissionSets) {
+        Path p = path.toAbsolutePath().normalize();
+        if(replace) {
+            addedPaths.put(p, permissionSets);
+            p = p.getParent();
+        }
+        while(p != null && !Files.exists(p)) {
+            addedPaths.put(p, permissionSets);
+            p = p.getParent();
+        }
+    }
+
+    /**
+     * Applies the file permissions in a single walk of the installation, as if the permissions of each
+     * package were applied to the paths present when the package was processed. For each path, the permissions
+     * of the packages processed after the path was added are matched from the last to the first
+     * and the first one including the path is set.
+     */
+    private void processFeaturePackFilePermissions(List<List<FilePermission>> filePermissions, Path installDir) throws ProvisioningException {
+        final Path root = installDir.toAbsolutePath().normalize();
         try {
-            Files.walkFileTree(installDir, new SimpleFileVisitor<Path>() {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
                 @Override
                 public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                    final String relative = installDir.relativize(dir).toString();
-                    for (FilePermission perm : filePermissions) {
-                        if (perm.includeFile(relative)) {
-                            Files.setPosixFilePermissions(dir, perm.getPermission());
-                            continue;
-                        }
-                    }
+                    setPermission(dir);
                     return FileVisitResult.CONTINUE;
                 }
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    final String relative = installDir.relativize(file).toString();
-                    for (FilePermission perm : filePermissions) {
-                        if (perm.includeFile(relative)) {
-                            Files.setPosixFilePermissions(file, perm.getPermission());
-                            continue;
+                    setPermission(file);
+                    return FileVisitResult.CONTINUE;
+                }
+                private void setPermission(Path path) throws IOException {
+                    final Integer added = addedPaths.get(path);
+                    final int first = added == null ? 0 : added;
+                    final String relative = root.relativize(path).toString();
+                    for (int i = filePermissions.size() - 1; i >= first; --i) {
+                        final List<FilePermission> pkgPermissions = filePermissions.get(i);
+                        for (int j = pkgPermissions.size() - 1; j >= 0; --j) {
+                            final FilePermission perm = pkgPermissions.get(j);
+                            if (perm.includeFile(relative)) {
+                                Files.setPosixFilePermissions(path, perm.getPermission());
+                                return;
+                            }
                         }
                     }
-                    return FileVisitResult.CONTINUE;
                 }
             });
         } catch (IOException e) {
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.plugin.wildfly;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.DefaultMessageWriter;
+import org.jboss.provisioning.ProvisioningManager;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.util.IoUtils;
+import org.jboss.provisioning.util.PropertyUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The file permissions of a package apply to the paths present when the package
+ * is processed, not to the paths added by the packages processed after it.
+ *
+ * @author agent
+ */
+public class WfFilePermissionsTest {
+
+    private static final ArtifactCoords.Gav FP_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final String TASKS_XML = "pm/wildfly/tasks.xml";
+
+    private Path repoHome;
+    private Path installHome;
+
+    @Before
+    public void before() throws Exception {
+        Assume.assumeFalse(PropertyUtils.isWindows());
+        repoHome = IoUtils.createRandomTmpDir();
+        installHome = IoUtils.createRandomTmpDir();
+    }
+
+    @After
+    public void after() throws Exception {
+        if(repoHome != null) {
+            IoUtils.recursiveDelete(installHome);
+            IoUtils.recursiveDelete(repoHome);
+        }
+    }
+
+    @Test
+    public void testPermissionsOfTwoPackages() throws Exception {
+        FeaturePackRepositoryManager.newInstance(repoHome).installer()
+        .newFeaturePack(FP_GAV)
+            .addPlugin(WfProvisioningPlugin.class)
+            .newPackage("p1", true)
+                .writeContent("bin/p1.sh", "p1")
+                .writeContent("bin/p1.conf", "p1")
+                .writeContent(TASKS_XML,
+                        "<tasks xmlns=\"urn:wildfly:wildfly-feature-pack-tasks:2.0\">" +
+                        "  <file-permissions>" +
+                        "    <permission value=\"700\">" +
+                        "      <filter pattern=\"bin/*\" include=\"true\"/>" +
+                        "    </permission>" +
+                        "  </file-permissions>" +
+                        "</tasks>", false)
+                .getFeaturePack()
+            .newPackage("p2", true)
+                .addDependency("p1")
+                .writeContent("pm/wildfly/p2.sh", "p2", false)
+                .writeContent(TASKS_XML,
+                        "<tasks xmlns=\"urn:wildfly:wildfly-feature-pack-tasks:2.0\">" +
+                        "  <copy-paths>" +
+                        "    <path src=\"p2.sh\" target=\"bin/p2.sh\"/>" +
+                        "  </copy-paths>" +
+                        "  <mkdirs>" +
+                        "    <dir name=\"bin/p2\"/>" +
+                        "  </mkdirs>" +
+                        "  <file-permissions>" +
+                        "    <permission value=\"750\">" +
+                        "      <filter pattern=\"bin/*.conf\" include=\"true\"/>" +
+                        "    </permission>" +
+                        "  </file-permissions>" +
+                        "</tasks>", false)
+                .getFeaturePack()
+            .getInstaller()
+        .install();
+
+        final Path newFile = installHome.resolve("new.txt");
+        IoUtils.writeFile(newFile, "new");
+        final String defaultFilePermissions = PosixFilePermissions.toString(Files.getPosixFilePermissions(newFile));
+        final Path newDir = Files.createDirectory(installHome.resolve("new"));
+        final String defaultDirPermissions = PosixFilePermissions.toString(Files.getPosixFilePermissions(newDir));
+        IoUtils.recursiveDelete(newFile);
+        IoUtils.recursiveDelete(newDir);
+
+        ProvisioningManager.builder()
+                .setArtifactResolver(FeaturePackRepositoryManager.newInstance(repoHome))
+                .setInstallationHome(installHome)
+                .setMessageWriter(DefaultMessageWriter.getDefaultInstance())
+                .build()
+                .install(FP_GAV);
+
+        assertPermissions("rwx------", "bin/p1.sh");
+        // the permissions of p2 override the permissions of p1
+        assertPermissions("rwxr-x---", "bin/p1.conf");
+        // the paths added by p2 are not affected by the permissions of p1
+        assertPermissions(defaultFilePermissions, "bin/p2.sh");
+        assertPermissions(defaultDirPermissions, "bin/p2");
+    }
+
+    private void assertPermissions(String expected, String relativePath) throws Exception {
+        assertEquals(relativePath, expected, PosixFilePermissions.toString(Files.getPosixFilePermissions(installHome.resolve(relativePath))));
+    }
+}
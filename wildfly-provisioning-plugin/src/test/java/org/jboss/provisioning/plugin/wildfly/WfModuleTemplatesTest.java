@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.plugin.wildfly;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.DefaultMessageWriter;
+import org.jboss.provisioning.ProvisioningManager;
+import org.jboss.provisioning.repomanager.FeaturePackBuilder;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.repomanager.PackageBuilder;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The module templates are processed concurrently. The templates of the following packages
+ * targeting the same module.xml replace the preceding ones as if they were processed in place.
+ *
+ * @author agent
+ */
+public class WfModuleTemplatesTest {
+
+    private static final ArtifactCoords.Gav FP_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final String MODULE_XML = "pm/wildfly/module/modules/test/main/module.xml";
+    private static final int PACKAGES = 8;
+
+    private Path repoHome;
+    private Path installHome;
+    private String moduleThreads;
+
+    @Before
+    public void before() throws Exception {
+        repoHome = IoUtils.createRandomTmpDir();
+        installHome = IoUtils.createRandomTmpDir();
+        moduleThreads = System.setProperty("wfModuleThreads", "4");
+    }
+
+    @After
+    public void after() throws Exception {
+        if(moduleThreads == null) {
+            System.clearProperty("wfModuleThreads");
+        } else {
+            System.setProperty("wfModuleThreads", moduleThreads);
+        }
+        IoUtils.recursiveDelete(installHome);
+        IoUtils.recursiveDelete(repoHome);
+    }
+
+    @Test
+    public void testTemplatesOfTheSameModule() throws Exception {
+        final FeaturePackBuilder fp = FeaturePackRepositoryManager.newInstance(repoHome).installer()
+                .newFeaturePack(FP_GAV)
+                .addPlugin(WfProvisioningPlugin.class);
+        for(int i = 1; i <= PACKAGES; ++i) {
+            final PackageBuilder pkg = fp.newPackage("p" + i, true)
+                    .writeContent(MODULE_XML, moduleXml(i), false);
+            if(i > 1) {
+                pkg.addDependency("p" + (i - 1));
+            }
+        }
+        fp.getInstaller().install();
+
+        ProvisioningManager.builder()
+                .setArtifactResolver(FeaturePackRepositoryManager.newInstance(repoHome))
+                .setInstallationHome(installHome)
+                .setMessageWriter(DefaultMessageWriter.getDefaultInstance())
+                .build()
+                .install(FP_GAV);
+
+        assertEquals(moduleXml(PACKAGES).trim(), IoUtils.readFile(installHome.resolve("modules/test/main/module.xml")).trim());
+    }
+
+    private static String moduleXml(int pkg) {
+        // the templates of the preceding packages are larger, so that they are still
+        // being written when the templates of the following packages are processed
+        final StringBuilder buf = new StringBuilder();
+        for(int i = 0; i < 10000 * (PACKAGES - pkg + 1); ++i) {
+            buf.append("<!-- p").append(pkg).append(" -->\n");
+        }
+        return buf.append("<module name=\"p").append(pkg).append("\"/>\n").toString();
+    }
+}